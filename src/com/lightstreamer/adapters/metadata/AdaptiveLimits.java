@@ -0,0 +1,178 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Controller that reduces the frequency limits granted by the Metadata
+ * Adapter when the load grows beyond configured targets. <BR>
+ * The load is periodically measured as the ratio between the observed
+ * rate of session and subscription requests and its target, or between
+ * the number of active Item subscriptions and its target, whichever is
+ * higher. The measures are smoothed by an exponential moving average and
+ * the limits are scaled by the inverse of the smoothed load, when it
+ * exceeds 1, but never below a configured minimum factor.
+ * Each change of the factor is logged.
+ */
+class AdaptiveLimits {
+
+    private static final Logger logger = Logger.getLogger(AdaptiveLimits.class.getName());
+
+    // changes of the factor smaller than this are not applied
+    private static final double MIN_CHANGE = 0.01;
+
+    private final double targetCallRate;
+    private final long targetSubscriptions;
+    private final double minFactor;
+    private final double smoothing;
+
+    private final StripedCounter calls = new StripedCounter();
+    private final AtomicLong subscriptions = new AtomicLong();
+
+    private volatile double factor = 1.0;
+
+    // only accessed by the controller thread
+    private double smoothedLoad;
+    private long lastCalls;
+    private long lastTime;
+
+    /**
+     * Creates a controller.
+     *
+     * @param targetCallRate the request rate, in requests per second, above
+     * which the limits are reduced, or 0 if the rate should not be considered.
+     * @param targetSubscriptions the number of subscribed Items above which
+     * the limits are reduced, or 0 if it should not be considered.
+     * @param minFactor the minimum factor applied to the limits.
+     * @param smoothing the weight of a new measure in the moving average,
+     * between 0 (exclusive) and 1.
+     * @throws IllegalArgumentException in case of invalid arguments.
+     */
+    AdaptiveLimits(double targetCallRate, long targetSubscriptions, double minFactor, double smoothing) {
+        if (targetCallRate <= 0 && targetSubscriptions <= 0) {
+            throw new IllegalArgumentException("no load target");
+        }
+        if (minFactor <= 0 || minFactor > 1) {
+            throw new IllegalArgumentException("minimum factor out of range: " + minFactor);
+        }
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("smoothing out of range: " + smoothing);
+        }
+        this.targetCallRate = targetCallRate;
+        this.targetSubscriptions = targetSubscriptions;
+        this.minFactor = minFactor;
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Starts the periodic evaluation of the load.
+     *
+     * @param intervalMillis the evaluation period.
+     */
+    void start(long intervalMillis) {
+        lastTime = System.currentTimeMillis();
+        ScheduledExecutorService controller = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("Adaptive limits controller"));
+        controller.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                update(System.currentTimeMillis());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Accounts for a session or subscription request.
+     */
+    void called() {
+        calls.increment();
+    }
+
+    /**
+     * Accounts for a change in the number of subscribed Items.
+     */
+    void subscribed(int items) {
+        subscriptions.addAndGet(items);
+    }
+
+    /**
+     * Returns the current factor to be applied to the frequency limits.
+     */
+    double getFactor() {
+        return factor;
+    }
+
+    /**
+     * Applies the current factor to a limit, where 0 means unlimited.
+     */
+    double apply(double limit) {
+        if (limit <= 0) {
+            return limit;
+        }
+        return limit * factor;
+    }
+
+    /**
+     * Evaluates the load since the previous evaluation and updates the
+     * factor; only invoked by the controller thread, or by tests.
+     *
+     * @param now the current time, in milliseconds.
+     */
+    void update(long now) {
+        long currCalls = calls.get();
+        long elapsed = now - lastTime;
+        if (elapsed <= 0) {
+            return;
+        }
+        double rate = (currCalls - lastCalls) * 1000.0 / elapsed;
+        long currSubscriptions = subscriptions.get();
+        lastCalls = currCalls;
+        lastTime = now;
+
+        double load = 0;
+        if (targetCallRate > 0) {
+            load = Math.max(load, rate / targetCallRate);
+        }
+        if (targetSubscriptions > 0) {
+            load = Math.max(load, (double) currSubscriptions / targetSubscriptions);
+        }
+        smoothedLoad = smoothing * load + (1 - smoothing) * smoothedLoad;
+
+        double newFactor = 1.0;
+        if (smoothedLoad > 1) {
+            newFactor = Math.max(1 / smoothedLoad, minFactor);
+        }
+        double oldFactor = factor;
+        if (Math.abs(newFactor - oldFactor) >= MIN_CHANGE || (newFactor == 1.0 && oldFactor != 1.0)) {
+            factor = newFactor;
+            logger.info("Frequency limit factor changed from " + format(oldFactor) + " to " + format(newFactor)
+                    + " (request rate " + format(rate) + "/s, subscribed items " + currSubscriptions
+                    + ", smoothed load " + format(smoothedLoad) + ")");
+        }
+    }
+
+    private static String format(double value) {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+
+}
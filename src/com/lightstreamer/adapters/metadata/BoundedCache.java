@@ -0,0 +1,196 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Simple concurrent map with a bounded number of entries, used by the
+ * Metadata Adapters to memoize the outcome of expensive lookups. <BR>
+ * The entries are spread over a fixed number of segments, each one guarded
+ * by its own lock, so that concurrent lookups on different keys seldom
+ * contend. When a segment is full, its eldest entry is evicted, where the
+ * eldest entry is the least recently used one, with the LRU policy, or the
+ * least recently inserted one, with the FIFO policy.
+ */
+class BoundedCache<K, V> {
+
+    /**
+     * Name of the eviction policy based on access order.
+     */
+    static final String LRU = "LRU";
+
+    /**
+     * Name of the eviction policy based on insertion order.
+     */
+    static final String FIFO = "FIFO";
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity, boolean accessOrder) {
+            super(16, 0.75f, accessOrder);
+            this.capacity = capacity;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private final Segment<K, V>[] segments;
+    private final int mask;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize the maximum number of entries; it must be positive.
+     * @param policy the eviction policy, either "LRU" or "FIFO"
+     * (case insensitive); if null, "LRU" is assumed.
+     * @throws IllegalArgumentException in case of invalid arguments.
+     */
+    @SuppressWarnings("unchecked")
+    BoundedCache(int maxSize, String policy) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("non positive cache size: " + maxSize);
+        }
+        boolean accessOrder;
+        if (policy == null || policy.equalsIgnoreCase(LRU)) {
+            accessOrder = true;
+        } else if (policy.equalsIgnoreCase(FIFO)) {
+            accessOrder = false;
+        } else {
+            throw new IllegalArgumentException("invalid cache policy: " + policy);
+        }
+
+        int count = 1;
+        while (count < MAX_SEGMENTS && count * 2 <= maxSize) {
+            count *= 2;
+        }
+        segments = (Segment<K, V>[]) new Segment<?, ?>[count];
+        // the remainder is spread over the first segments, so that the
+        // capacities add up to the maximum size exactly
+        int capacity = maxSize / count;
+        int larger = maxSize % count;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<K, V>(i < larger ? capacity + 1 : capacity, accessOrder);
+        }
+        mask = count - 1;
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & mask];
+    }
+
+    /**
+     * Returns the value associated to a key, or null.
+     */
+    V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Associates a value to a key, unless the key is already associated.
+     *
+     * @return the value already associated to the key, or null if the
+     * supplied value has been stored.
+     */
+    V putIfAbsent(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V found = segment.get(key);
+            if (found != null) {
+                return found;
+            }
+            segment.put(key, value);
+            return null;
+        }
+    }
+
+    /**
+     * Associates a value to a key, replacing any previous association.
+     */
+    void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * Removes the association of a key, if any.
+     *
+     * @return the value previously associated to the key, or null.
+     */
+    V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                segments[i].clear();
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of all the entries, where, within each segment,
+     * the eldest entries come first.
+     */
+    Map<K, V> toMap() {
+        Map<K, V> copy = new LinkedHashMap<K, V>();
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                copy.putAll(segments[i]);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the current number of entries.
+     */
+    int size() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                size += segments[i].size();
+            }
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,643 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.lightstreamer.interfaces.metadata.ItemsException;
+import com.lightstreamer.interfaces.metadata.MetadataProviderException;
+import com.lightstreamer.interfaces.metadata.SchemaException;
+
+/**
+ * Simple full implementation of a Metadata Adapter, made available
+ * in Lightstreamer SDK. The Adapter is not meant for production use,
+ * but it can be used as a starting point for real Adapters. <BR>
+ *
+ * The class allows Item Groups, Field Schemas and User names to be stored
+ * in a local embedded database, like H2 or SQLite, accessed through JDBC,
+ * so that very many Item Groups can be handled without one file each.
+ * The JDBC driver of the database has to be available in the classpath
+ * of the Adapter; no external service is involved. <BR>
+ * The database has to be supplied together with adapter configuration,
+ * through a "jdbc_url" parameter inside the "metadata_provider" element
+ * that defines the Adapter; the class of the JDBC driver, if it has to
+ * be loaded explicitly, can be supplied in a "jdbc_driver" parameter, and
+ * the credentials, if needed, in "jdbc_user" and "jdbc_password"
+ * parameters. <BR>
+ * By default, the Item names of each Item Group are taken from a
+ * "metadata_items" table, with "group_name", "position" and "item_name"
+ * columns, and the Field names of each Field Schema are taken from a
+ * "metadata_fields" table, with "schema_name", "position" and "field_name"
+ * columns, in "position" order; different queries, taking the Item Group
+ * or Field Schema name as the only argument and returning the names in
+ * the first column, can be supplied in "items_query" and "schema_query"
+ * parameters. Item Groups and Field Schemas for which no names are found
+ * are refused. <BR>
+ * The queries are prepared once on each of a pool of connections, whose
+ * size can be supplied in a "pool_size" parameter (the default is 4);
+ * concurrent requests beyond the pool size wait for a connection.
+ * The Item Groups and Field Schemas found are kept in memory, up to
+ * a number of each that can be supplied in a "cache_size" parameter
+ * (the default is 10000), evicting the least recently used ones;
+ * they are read again from the database after the number of milliseconds
+ * supplied in a "cache_millis" parameter (the default is 0, which means
+ * never). The names are shared among the Item Groups and Field Schemas
+ * in memory, up to a number of names that can be supplied in a
+ * "cache_name_pool_size" parameter (the default is 100000); this pool is
+ * distinct from the one configured through "list_name_pool_size".
+ * Concurrent requests for the same Item Group or Field Schema share a
+ * single query. The Item Groups and Field Schemas found missing can be
+ * remembered as such for the number of milliseconds supplied in a
+ * "missing_millis" parameter (the default is 0, which means never), so that
+ * repeated requests for them don't query the database, up to a number of
+ * each that can be supplied in a "missing_cache_size" parameter (the
+ * default is 10000). <BR>
+ * If a "preload" parameter containing "Y" is supplied, the Item Groups
+ * and Field Schemas are loaded in bulk upon initialization, up to the
+ * size of the cache, through queries that return all of them, with the
+ * Item Group or Field Schema name in the first column and a name in the
+ * second one, in order; by default, the same tables as above are used,
+ * but different queries can be supplied in "preload_items_query" and
+ * "preload_schema_query" parameters. <BR>
+ * The allowed User names, in addition to the ones supplied in an
+ * "allowed_users" parameter, as for LiteralBasedProvider, can be taken
+ * from the database, through a query that returns them in the first
+ * column, supplied in a "users_query" parameter; the query can be
+ * performed again periodically, with the period, in milliseconds,
+ * supplied in a "users_reload_millis" parameter (the default is 0,
+ * which means never). <BR>
+ *
+ * The resource levels, the Item families and the other settings are
+ * handled as described for LiteralBasedProvider.
+ */
+public class DatabaseBasedProvider extends LiteralBasedProvider {
+
+    private static final Logger logger = Logger.getLogger(DatabaseBasedProvider.class.getName());
+
+    private static final String ITEMS_QUERY =
+            "SELECT item_name FROM metadata_items WHERE group_name = ? ORDER BY position";
+    private static final String SCHEMA_QUERY =
+            "SELECT field_name FROM metadata_fields WHERE schema_name = ? ORDER BY position";
+    private static final String PRELOAD_ITEMS_QUERY =
+            "SELECT group_name, item_name FROM metadata_items ORDER BY group_name, position";
+    private static final String PRELOAD_SCHEMA_QUERY =
+            "SELECT schema_name, field_name FROM metadata_fields ORDER BY schema_name, position";
+
+    /**
+     * A connection, with the queries prepared on it.
+     */
+    private static class Lookup {
+        private final Connection connection;
+        private final PreparedStatement items;
+        private final PreparedStatement schema;
+
+        private Lookup(Connection connection, String itemsQuery, String schemaQuery) throws SQLException {
+            this.connection = connection;
+            try {
+                this.items = connection.prepareStatement(itemsQuery);
+                this.schema = connection.prepareStatement(schemaQuery);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        private void close() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.fine("Error closing connection: " + e);
+            }
+        }
+    }
+
+    /**
+     * The names of an Item Group or Field Schema, with the time they were read.
+     */
+    private static class Names {
+        private final String[] contents;
+        private final long loaded;
+
+        private Names(String[] contents, long loaded) {
+            this.contents = contents;
+            this.loaded = loaded;
+        }
+    }
+
+    private String url;
+    private Properties credentials;
+    private String itemsQuery;
+    private String schemaQuery;
+
+    // the connections not in use, which may be fewer than the pool size,
+    // as broken connections are only replaced when needed
+    private final ConcurrentLinkedQueue<Lookup> idle = new ConcurrentLinkedQueue<Lookup>();
+    private Semaphore available;
+
+    /**
+     * The Item Groups or the Field Schemas, as kept in memory.
+     */
+    private static class Source {
+        private final boolean items;
+        private final BoundedCache<String, Names> found;
+        // the names recently found missing, with their expiry time, if enabled
+        private final BoundedCache<String, Long> missing;
+        // the queries in progress, shared by concurrent requests
+        private final ConcurrentHashMap<String, FutureTask<String[]>> loading =
+                new ConcurrentHashMap<String, FutureTask<String[]>>();
+
+        private Source(boolean items, BoundedCache<String, Names> found, BoundedCache<String, Long> missing) {
+            this.items = items;
+            this.found = found;
+            this.missing = missing;
+        }
+    }
+
+    private Source groups;
+    private Source schemas;
+    private int cacheSize;
+    private long cacheMillis;
+    private long missingMillis;
+    private NamePool names;
+
+    private String usersQuery;
+    private long usersReloadMillis;
+
+    /**
+     * Void constructor required by Lightstreamer Kernel.
+     */
+    public DatabaseBasedProvider() {
+    }
+
+    /**
+     * Reads configuration settings and sets internal constants.
+     * The setting for "jdbc_url" is mandatory.
+     *
+     * @param  params  Can contain the configuration settings.
+     * @param  dir  Directory where the configuration file resides.
+     * @throws MetadataProviderException in case of configuration errors
+     * or if the database cannot be accessed.
+     */
+    protected void configure(Map<?, ?> params, File dir) throws MetadataProviderException {
+        super.configure(params, dir);
+
+        boolean preload;
+        String currParam = null;
+        try {
+            currParam = "jdbc_driver";
+            String jd = (String) params.get(currParam);
+            if (jd != null) {
+                Class.forName(jd);
+            }
+
+            currParam = "jdbc_url";
+            url = (String) params.get(currParam);
+            if (url == null) {
+                throw new Exception("missing database url");
+            }
+
+            credentials = new Properties();
+            currParam = "jdbc_user";
+            String ju = (String) params.get(currParam);
+            if (ju != null) {
+                credentials.setProperty("user", ju);
+            }
+            currParam = "jdbc_password";
+            String jp = (String) params.get(currParam);
+            if (jp != null) {
+                credentials.setProperty("password", jp);
+            }
+
+            currParam = "items_query";
+            String iq = (String) params.get(currParam);
+            itemsQuery = (iq != null ? iq : ITEMS_QUERY);
+
+            currParam = "schema_query";
+            String sq = (String) params.get(currParam);
+            schemaQuery = (sq != null ? sq : SCHEMA_QUERY);
+
+            currParam = "pool_size";
+            String ps = (String) params.get(currParam);
+            int poolSize = 4;
+            if (ps != null) {
+                poolSize = Integer.parseInt(ps);
+            }
+            available = new Semaphore(poolSize, true);
+
+            currParam = "cache_size";
+            String cs = (String) params.get(currParam);
+            cacheSize = 10000;
+            if (cs != null) {
+                cacheSize = Integer.parseInt(cs);
+            }
+            if (cacheSize <= 0) {
+                throw new Exception("non positive cache size: " + cacheSize);
+            }
+
+            currParam = "cache_millis";
+            String cm = (String) params.get(currParam);
+            cacheMillis = 0;
+            if (cm != null) {
+                cacheMillis = Long.parseLong(cm);
+            }
+
+            currParam = "missing_millis";
+            String mm = (String) params.get(currParam);
+            missingMillis = 0;
+            if (mm != null) {
+                missingMillis = Long.parseLong(mm);
+            }
+            BoundedCache<String, Long> missingGroups = null;
+            BoundedCache<String, Long> missingSchemas = null;
+            if (missingMillis > 0) {
+                currParam = "missing_cache_size";
+                String mcs = (String) params.get(currParam);
+                int size = 10000;
+                if (mcs != null) {
+                    size = Integer.parseInt(mcs);
+                }
+                missingGroups = new BoundedCache<String, Long>(size, BoundedCache.FIFO);
+                missingSchemas = new BoundedCache<String, Long>(size, BoundedCache.FIFO);
+            }
+
+            groups = new Source(true, new BoundedCache<String, Names>(cacheSize, BoundedCache.LRU), missingGroups);
+            schemas = new Source(false, new BoundedCache<String, Names>(cacheSize, BoundedCache.LRU), missingSchemas);
+
+            currParam = "cache_name_pool_size";
+            String nps = (String) params.get(currParam);
+            if (nps != null) {
+                names = new NamePool(Integer.parseInt(nps));
+            } else {
+                names = new NamePool(100000);
+            }
+
+            currParam = "users_query";
+            usersQuery = (String) params.get(currParam);
+
+            currParam = "users_reload_millis";
+            String urm = (String) params.get(currParam);
+            usersReloadMillis = 0;
+            if (urm != null) {
+                usersReloadMillis = Long.parseLong(urm);
+            }
+
+            currParam = "preload";
+            String p = (String) params.get(currParam);
+            preload = (p != null) && p.equalsIgnoreCase("Y");
+        } catch (Exception e) {
+            throw new MetadataProviderException("error reading parameter " + currParam + ": " + e);
+        }
+
+        // a first connection is opened to check the configuration;
+        // the others are opened when needed
+        try {
+            idle.add(open());
+        } catch (SQLException e) {
+            throw new MetadataProviderException("error opening " + url + ": " + e);
+        }
+
+        try {
+            if (preload) {
+                String piq = (String) params.get("preload_items_query");
+                String psq = (String) params.get("preload_schema_query");
+                int groupCount = preload(groups.found, (piq != null ? piq : PRELOAD_ITEMS_QUERY));
+                int schemaCount = preload(schemas.found, (psq != null ? psq : PRELOAD_SCHEMA_QUERY));
+                logger.info("Preloaded " + groupCount + " groups and " + schemaCount + " schemas from " + url);
+            }
+            if (usersQuery != null) {
+                loadUsers(usersQuery);
+            }
+        } catch (SQLException e) {
+            closeAll();
+            throw new MetadataProviderException("error reading " + url + ": " + e);
+        } catch (InterruptedException e) {
+            closeAll();
+            throw new MetadataProviderException("interrupted while reading " + url);
+        }
+    }
+
+    private void closeAll() {
+        Lookup lookup;
+        while ((lookup = idle.poll()) != null) {
+            lookup.close();
+        }
+    }
+
+    /**
+     * Starts the periodic reloads of the allowed User names, if configured.
+     */
+    protected void start() {
+        super.start();
+
+        if (usersQuery != null && usersReloadMillis > 0) {
+            final String query = usersQuery;
+            ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(
+                    new DaemonThreadFactory("Allowed users reloader"));
+            reloader.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        loadUsers(query);
+                    } catch (Exception e) {
+                        // the current list is kept
+                        logger.log(Level.WARNING, "Error reloading allowed users from " + url, e);
+                    }
+                }
+            }, usersReloadMillis, usersReloadMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Lookup open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, credentials);
+        try {
+            connection.setReadOnly(true);
+        } catch (SQLException e) {
+            // only a hint, which some drivers, like SQLite, refuse once connected
+            logger.fine("Cannot set read-only connections to " + url + ": " + e);
+        }
+        return new Lookup(connection, itemsQuery, schemaQuery);
+    }
+
+    private Lookup borrow() throws SQLException, InterruptedException {
+        available.acquire();
+        Lookup lookup = idle.poll();
+        if (lookup != null) {
+            return lookup;
+        }
+        try {
+            return open();
+        } catch (SQLException e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    private void release(Lookup lookup, boolean ok) {
+        if (ok) {
+            idle.add(lookup);
+        } else {
+            // the connection may be broken and it will be replaced
+            lookup.close();
+        }
+        available.release();
+    }
+
+    private int preload(BoundedCache<String, Names> cache, String query)
+            throws SQLException, InterruptedException {
+        Lookup lookup = borrow();
+        boolean ok = false;
+        int count = 0;
+        try {
+            Statement statement = lookup.connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery(query);
+                long now = System.currentTimeMillis();
+                String current = null;
+                List<String> list = new ArrayList<String>();
+                while (count < cacheSize) {
+                    boolean more = rs.next();
+                    String name = (more ? rs.getString(1) : null);
+                    if (current != null && ! current.equals(name)) {
+                        cache.put(current, new Names(toNames(list), now));
+                        count++;
+                        list.clear();
+                    }
+                    if (! more) {
+                        break;
+                    }
+                    current = name;
+                    list.add(rs.getString(2));
+                }
+                rs.close();
+            } finally {
+                statement.close();
+            }
+            ok = true;
+        } finally {
+            release(lookup, ok);
+        }
+        return count;
+    }
+
+    private void loadUsers(String query) throws SQLException, InterruptedException {
+        Lookup lookup = borrow();
+        boolean ok = false;
+        try {
+            Statement statement = lookup.connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery(query);
+                List<String> list = new ArrayList<String>();
+                while (rs.next()) {
+                    list.add(rs.getString(1));
+                }
+                rs.close();
+                setAllowedUsers(list.toArray(new String[list.size()]));
+                logger.fine("Loaded " + list.size() + " allowed users from " + url);
+            } finally {
+                statement.close();
+            }
+            ok = true;
+        } finally {
+            release(lookup, ok);
+        }
+    }
+
+    private String[] toNames(List<String> list) {
+        String[] contents = list.toArray(new String[list.size()]);
+        names.internAll(contents);
+        return contents;
+    }
+
+    /**
+     * Returns the names of an Item Group or Field Schema, or null if none.
+     * If the names are already being read, waits for that read.
+     */
+    private String[] read(final Source source, final String name)
+            throws SQLException, InterruptedException {
+        Names found = source.found.get(name);
+        if (found != null) {
+            if (cacheMillis <= 0 || System.currentTimeMillis() - found.loaded < cacheMillis) {
+                return found.contents;
+            }
+        }
+        if (source.missing != null) {
+            Long expiry = source.missing.get(name);
+            if (expiry != null) {
+                if (System.currentTimeMillis() < expiry.longValue()) {
+                    return null;
+                }
+                source.missing.remove(name);
+            }
+        }
+
+        while (true) {
+            FutureTask<String[]> task = new FutureTask<String[]>(new Callable<String[]>() {
+                public String[] call() throws SQLException, InterruptedException {
+                    return query(source, name);
+                }
+            });
+            FutureTask<String[]> running = source.loading.putIfAbsent(name, task);
+            if (running == null) {
+                running = task;
+                task.run();
+            }
+            // otherwise another thread is already querying and we wait for it
+
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                } else if (cause instanceof InterruptedException) {
+                    if (running == task) {
+                        throw (InterruptedException) cause;
+                    }
+                    // the other thread was interrupted, but we were not
+                    continue;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new SQLException(cause);
+                }
+            } finally {
+                if (running == task) {
+                    source.loading.remove(name, task);
+                }
+            }
+        }
+    }
+
+    private String[] query(Source source, String name) throws SQLException, InterruptedException {
+        long now = System.currentTimeMillis();
+        List<String> list = new ArrayList<String>();
+        Lookup lookup = borrow();
+        boolean ok = false;
+        try {
+            PreparedStatement statement = (source.items ? lookup.items : lookup.schema);
+            statement.setString(1, name);
+            ResultSet rs = statement.executeQuery();
+            try {
+                while (rs.next()) {
+                    list.add(rs.getString(1));
+                }
+            } finally {
+                rs.close();
+            }
+            ok = true;
+        } finally {
+            release(lookup, ok);
+        }
+
+        if (list.isEmpty()) {
+            source.found.remove(name);
+            if (source.missing != null) {
+                source.missing.put(name, Long.valueOf(now + missingMillis));
+            }
+            return null;
+        }
+        String[] contents = toNames(list);
+        source.found.put(name, new Names(contents, now));
+        return contents;
+    }
+
+    /**
+     * Resolves an Item Group name supplied in a Request. The names of the Items
+     * in the Group are returned.
+     * For any supplied Item Group name, the Item names are read from the
+     * database, unless already in memory.
+     *
+     * @param user A User name. Not used.
+     * @param group An Item Group name.
+     * @return An array with the names of the Items in the Group.
+     * @throws ItemsException  if the Group is not found or the database
+     * cannot be read.
+     */
+    public String[] getItems(String user, String group) throws ItemsException {
+        String[] items;
+        try {
+            items = read(groups, group);
+        } catch (SQLException e) {
+            throw new ItemsException(e.getClass().getName() + ": "
+                                     + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ItemsException("interrupted while reading group " + group);
+        }
+        if (items == null) {
+            throw new ItemsException("group not found: " + group);
+        }
+        return items;
+    }
+
+    /**
+     * Resolves a Field Schema name supplied in a Request. The names of the Fields
+     * in the Schema are returned.
+     * For any supplied Field Schema name, the Field names are read from the
+     * database, unless already in memory.
+     *
+     * @param user A User name. Not used.
+     * @param group The name of the Item Group whose Items the Schema
+     * is to be applied to. Not used.
+     * @param schema A Field Schema name.
+     * @return An array with the names of the Fields in the Schema.
+     * @throws SchemaException  if the Schema is not found or the database
+     * cannot be read.
+     */
+    public String[] getSchema(String user, String group, String schema)
+            throws SchemaException {
+        String[] fields;
+        try {
+            fields = read(schemas, schema);
+        } catch (SQLException e) {
+            throw new SchemaException(e.getClass().getName() + ": "
+                                      + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SchemaException("interrupted while reading schema " + schema);
+        }
+        if (fields == null) {
+            throw new SchemaException("schema not found: " + schema);
+        }
+        return fields;
+    }
+
+}
@@ -18,13 +18,33 @@
 
 package com.lightstreamer.adapters.metadata;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.lightstreamer.interfaces.metadata.ItemsException;
 import com.lightstreamer.interfaces.metadata.MetadataProviderException;
@@ -43,7 +63,103 @@ import com.lightstreamer.interfaces.metadata.SchemaException;
  * The files directory has to be supplied together with adapter configuration,
  * through a "search_dir" parameter inside the "metadata_provider" element
  * that defines the Adapter. The files are reloaded at every new request,
- * unless a "static" parameter containing a "Y" is also present. <BR>
+ * unless a "static" parameter containing a "Y" is also present.
+ * As an intermediate option, the "static" parameter may contain "CHECK";
+ * in this case, the files are kept in memory as well, but, at each new
+ * request, the last-modified time and size of the file are checked and
+ * the file is reloaded only if any of them has changed. The checks on the
+ * same file can be limited to at most one in the number of milliseconds
+ * supplied in a "check_millis" parameter (the default is 0, which means
+ * no limit). If such a limit is set, the files in use can also be checked
+ * in advance in the background, so that requests don't have to access the
+ * disk, by supplying in a "refresh_ahead_millis" parameter how long before
+ * the next check is due the files should be checked (the default is 0,
+ * which means never); the files accessed more often are checked first,
+ * by the number of threads supplied in a "refresh_threads" parameter
+ * (the default is 2). Note that the background checks are only available
+ * with "CHECK" and a nonzero "check_millis" (the parameter is ignored
+ * otherwise) and that the priority of each pending check is based on the
+ * accesses to the file counted when the check was scheduled.
+ * Alternatively, the "static" parameter may contain "WATCH"; in this case,
+ * the files kept in memory are never checked upon requests; rather, the
+ * directory is watched for changes and the changed files are discarded,
+ * to be reloaded upon the next request. If the changes cannot be tracked
+ * (for instance, because too many of them occur at once), all the files
+ * kept in memory are checked for changes in the background; if the
+ * directory cannot be watched at all, the behavior is the same as with
+ * "CHECK".
+ * Finally, the "static" parameter may contain "PRELOAD"; in this case, all
+ * the files in the directory are read upon initialization, in parallel,
+ * by the number of threads supplied in a "preload_threads" parameter
+ * (the default is the number of available processors); the files can be
+ * read again, in the background, with the period, in milliseconds,
+ * supplied in a "reload_millis" parameter (the default is 0, which means
+ * never), and, in that case, the new contents replace the old ones as a
+ * whole. Files not found in memory are read upon each request, as in the
+ * default case.
+ * Similarly, the "static" parameter may contain "INDEX"; in this case,
+ * the Item Groups and Field Schemas are taken from an index file, built
+ * in advance from the directory through the {@link IndexCompiler} tool,
+ * whose path, relative to the "search_dir" directory, has to be supplied
+ * in an "index_file" parameter; the index file is memory-mapped, so that
+ * its contents are not loaded on the Java heap, but for the Item Groups
+ * and Field Schemas used most recently, up to a number that can be
+ * supplied in an "index_cache_size" parameter (the default is 1000;
+ * 0 means that they are decoded upon each request). Item Groups and Field
+ * Schemas not found in the index file are read from the directory upon
+ * each request, as in the default case. <BR>
+ * In any case, files found missing can be remembered as such for the
+ * number of milliseconds supplied in a "missing_file_millis" parameter
+ * (the default is 0, which means never), so that repeated requests for
+ * missing Item Groups or Field Schemas don't access the disk, up to a
+ * number of files that can be supplied in a "missing_file_cache_size"
+ * parameter (the default is 10000); with "WATCH", they are also forgotten
+ * as soon as they are created, whereas, in all other cases, a file created
+ * in the meantime is only found when the time has elapsed. <BR>
+ * Field Schemas can also be specialized for an Item Group, if a
+ * "group_schemas" parameter containing "Y" is supplied; in this case,
+ * a Field Schema requested for an Item Group is first looked for in a file
+ * named &lt;group&gt;.&lt;schema&gt;.schema and, only if not found, in the
+ * usual &lt;schema&gt;.schema file. Unless the files are reloaded at every
+ * request, the outcome of the lookup is kept in memory for each pair of
+ * Item Group and Field Schema, and it is checked again or discarded
+ * together with the files, up to a number of pairs that can be supplied
+ * in a "group_schema_cache_size" parameter (the default is 10000). <BR>
+ * Item Groups can also be composed of other Item Groups, if a
+ * "group_includes" parameter containing "Y" is supplied; in this case, a
+ * line made of "#include" followed by the name of an Item Group is
+ * replaced with the Items of that group, in turn resolved in the same way;
+ * the Items listed in the file of the group are all kept as they are, as
+ * for groups without directives, whereas an included Item is only kept if
+ * not listed in the file and not included before, for instance through
+ * another group that includes the same group; on the other hand,
+ * lines that would lead to including a group in itself cause the request
+ * to be refused. Unless the files are reloaded at every request, the
+ * resolved groups are kept in memory and reused as long as the contents
+ * kept in memory for the files of all the groups involved are unchanged,
+ * up to a number of groups that can be supplied in an "include_cache_size"
+ * parameter (the default is 10000). The directives cannot be resolved for
+ * the Item Groups taken from an index file, hence IndexCompiler, when
+ * told that the directory is meant for "group_includes", refuses to
+ * compile groups that contain them. <BR>
+ * With "Y", "CHECK" and "WATCH", the number of files kept in memory can be
+ * limited by supplying a "cache_max_entries" parameter, and the memory
+ * occupation of their contents, as roughly estimated, can be limited by
+ * supplying a "cache_max_bytes" parameter; when a limit is exceeded,
+ * the files less used are discarded, according with a policy that can
+ * be supplied in a "cache_policy" parameter, as either LRU (the default)
+ * or LFU. In any case, the names found in the files kept in memory are
+ * shared among the files, up to a number of names that can be supplied
+ * in a "file_name_pool_size" parameter (the default is 100000); this pool
+ * is distinct from the one configured through "list_name_pool_size".
+ * If a warm start file is configured, as described for LiteralBasedProvider,
+ * the files kept in memory are also saved upon shutdown, and, upon the next
+ * startup, they are restored if their last-modified time and size are
+ * unchanged and the limits allow; the path of the file is relative to the
+ * "search_dir" directory. <BR>
+ * The statistics published through JMX, as described for LiteralBasedProvider,
+ * also include the time taken by file reads and, with "Y", "CHECK" and
+ * "WATCH", the hits and misses of the files kept in memory. <BR>
  * 
  * The resource levels are assigned the same for all Items and Users,
  * according with values that can be supplied together with adapter
@@ -81,12 +197,104 @@ import com.lightstreamer.interfaces.metadata.SchemaException;
  * requested in two conflicting Modes. <BR>
  * There are no access restrictions, but an optional User name check is
  * performed if a comma separated list of User names is supplied in an
- * "allowed_users" parameter.
+ * "allowed_users" parameter, or if the name of a file in the "search_dir"
+ * directory, listing one User name per line, is supplied in an
+ * "allowed_users_file" parameter.
  */
 
 public class FileBasedProvider extends LiteralBasedProvider {
     private File myDir;
-    private HashMap memory;
+    private FileCache cache;
+    private NamePool names;
+
+    private static final Logger logger = Logger.getLogger(FileBasedProvider.class.getName());
+
+    // whether the files kept in memory should be checked for changes
+    private volatile boolean checked;
+    private long checkMillis;
+
+    // the contents of all files, replaced as a whole upon reloads
+    private volatile Map<String, String[]> snapshot;
+    private int preloadThreads;
+    private long reloadMillis;
+    private ScheduledExecutorService reloader;
+
+    private boolean watched;
+    // the service watching the directory, until stopped
+    private volatile WatchService watchService;
+    private long refreshAheadMillis;
+    private int refreshThreads;
+
+    private MappedIndex index;
+
+    private static class SchemaFile {
+        // whether a group-specific schema file exists
+        private final boolean overridden;
+        private final long lastCheck;
+
+        private SchemaFile(boolean overridden, long lastCheck) {
+            this.overridden = overridden;
+            this.lastCheck = lastCheck;
+        }
+    }
+
+    private static class MissingFile {
+        private final String message;
+        private final long expiry;
+
+        private MissingFile(String message, long expiry) {
+            this.message = message;
+            this.expiry = expiry;
+        }
+    }
+
+    // the files recently found missing, by file name
+    private BoundedCache<String, MissingFile> missingFiles;
+    private long missingMillis;
+
+    private static class Expansion {
+        // the Item names, with all the include directives resolved
+        private final String[] items;
+        // the groups involved, the expanded one first, and the contents
+        // of their files from which the Item names were taken
+        private final String[] groups;
+        private final String[][] sources;
+
+        private Expansion(String[] items, String[] groups, String[][] sources) {
+            this.items = items;
+            this.groups = groups;
+            this.sources = sources;
+        }
+    }
+
+    /**
+     * A file to be saved, where the files used more recently come first.
+     */
+    private static class SavedFile implements Comparable<SavedFile> {
+        private final String fileName;
+        private final FileCache.Entry entry;
+        private final long lastAccess;
+
+        private SavedFile(String fileName, FileCache.Entry entry) {
+            this.fileName = fileName;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+
+        public int compareTo(SavedFile other) {
+            return (lastAccess > other.lastAccess ? -1 : (lastAccess == other.lastAccess ? 0 : 1));
+        }
+    }
+
+    // whether the include directives in .items files are resolved
+    private boolean includes;
+    // the outcome of the resolutions, by group name
+    private BoundedCache<String, Expansion> expansions;
+
+    // whether group-specific schema files are looked for
+    private boolean groupSchemas;
+    // the outcome of the lookups, by group-specific schema name
+    private BoundedCache<String, SchemaFile> schemaFiles;
 
     /**
      * Void constructor required by Lightstreamer Kernel.
@@ -97,97 +305,550 @@ public class FileBasedProvider extends LiteralBasedProvider {
     /**
      * Reads configuration settings and sets internal constants.
      * If the setting for "search_dir" is missing, "." is assumed.
-     * If the setting for "static" is missing, "Y" is assumed.
+     * If the setting for "static" is missing, "N" is assumed.
      *
      * @param  params  Can contain the configuration settings. 
      * @param  dir  Directory where the configuration file resides.
      * It is used as the base directory for the "search_dir" parameter.
      * @throws MetadataProviderException in case of configuration errors.
      */
-    public void init(Map params, File dir) throws MetadataProviderException {
-        super.init(params, dir);
+    protected void configure(Map<?, ?> params, File dir) throws MetadataProviderException {
+        super.configure(params, dir);
 
-        String md = (String) params.get("search_dir");
-        if (md != null) {
-            myDir = new File(md);
-            if (! myDir.isAbsolute()) {
-                myDir = new File(dir, md);
-            }
-        } else {
-            myDir = dir;
-        }
+        myDir = getFilesDir(params, dir);
 
         String s = (String) params.get("static");
+        boolean cached;
         if ((s != null) && s.equalsIgnoreCase("Y")) {
-            memory = new HashMap();
+            cached = true;
+            checked = false;
+        } else if ((s != null) && s.equalsIgnoreCase("CHECK")) {
+            cached = true;
+            checked = true;
+        } else if ((s != null) && s.equalsIgnoreCase("WATCH")) {
+            cached = true;
+            checked = false;
         } else {
-            memory = null;
+            cached = false;
+            checked = false;
+        }
+
+        String currParam = null;
+        try {
+            currParam = "group_includes";
+            String gi = (String) params.get(currParam);
+            includes = (gi != null) && gi.equalsIgnoreCase("Y");
+
+            currParam = "check_millis";
+            String cm = (String) params.get(currParam);
+            if (cm != null) {
+                checkMillis = Long.parseLong(cm);
+            } else {
+                checkMillis = 0;
+            }
+
+            currParam = "file_name_pool_size";
+            String nps = (String) params.get(currParam);
+            if (nps != null) {
+                names = new NamePool(Integer.parseInt(nps));
+            } else {
+                names = new NamePool(100000);
+            }
+
+            if (cached) {
+                currParam = "cache_max_entries";
+                String cme = (String) params.get(currParam);
+                int maxEntries = 0;
+                if (cme != null) {
+                    maxEntries = Integer.parseInt(cme);
+                }
+
+                currParam = "cache_max_bytes";
+                String cmb = (String) params.get(currParam);
+                long maxBytes = 0;
+                if (cmb != null) {
+                    maxBytes = Long.parseLong(cmb);
+                }
+
+                currParam = "cache_policy";
+                String policy = (String) params.get(currParam);
+                cache = new FileCache(myDir, names, maxEntries, maxBytes, policy,
+                        (metrics != null ? metrics.fileLoad : null), includes);
+            } else {
+                cache = null;
+            }
+            if (metrics != null) {
+                metrics.addFiles(cache);
+            }
+
+            currParam = "missing_file_millis";
+            String mfm = (String) params.get(currParam);
+            missingMillis = 0;
+            if (mfm != null) {
+                missingMillis = Long.parseLong(mfm);
+            }
+            if (missingMillis > 0) {
+                currParam = "missing_file_cache_size";
+                String mfcs = (String) params.get(currParam);
+                int size = 10000;
+                if (mfcs != null) {
+                    size = Integer.parseInt(mfcs);
+                }
+                missingFiles = new BoundedCache<String, MissingFile>(size, BoundedCache.FIFO);
+            } else {
+                missingFiles = null;
+            }
+
+            currParam = "group_schemas";
+            String gs = (String) params.get(currParam);
+            groupSchemas = (gs != null) && gs.equalsIgnoreCase("Y");
+            boolean kept = cached || ((s != null)
+                    && (s.equalsIgnoreCase("PRELOAD") || s.equalsIgnoreCase("INDEX")));
+            if (groupSchemas && kept) {
+                currParam = "group_schema_cache_size";
+                String gscs = (String) params.get(currParam);
+                int size = 10000;
+                if (gscs != null) {
+                    size = Integer.parseInt(gscs);
+                }
+                schemaFiles = new BoundedCache<String, SchemaFile>(size, BoundedCache.LRU);
+            } else {
+                schemaFiles = null;
+            }
+
+            if (includes && kept) {
+                currParam = "include_cache_size";
+                String ics = (String) params.get(currParam);
+                int size = 10000;
+                if (ics != null) {
+                    size = Integer.parseInt(ics);
+                }
+                expansions = new BoundedCache<String, Expansion>(size, BoundedCache.LRU);
+            } else {
+                expansions = null;
+            }
+
+            refreshAheadMillis = 0;
+            if (cached && checked && checkMillis > 0) {
+                currParam = "refresh_ahead_millis";
+                String ram = (String) params.get(currParam);
+                if (ram != null) {
+                    refreshAheadMillis = Long.parseLong(ram);
+                }
+                if (refreshAheadMillis > 0) {
+                    currParam = "refresh_threads";
+                    String rt = (String) params.get(currParam);
+                    refreshThreads = 2;
+                    if (rt != null) {
+                        refreshThreads = Integer.parseInt(rt);
+                    }
+                    if (refreshThreads <= 0) {
+                        throw new Exception("non positive thread count: " + refreshThreads);
+                    }
+                }
+            } else if (params.get("refresh_ahead_millis") != null) {
+                logger.warning("Parameter refresh_ahead_millis ignored, as it requires static set to CHECK and a nonzero check_millis");
+            }
+
+            if ((s != null) && s.equalsIgnoreCase("PRELOAD")) {
+                currParam = "preload_threads";
+                String pt = (String) params.get(currParam);
+                if (pt != null) {
+                    preloadThreads = Integer.parseInt(pt);
+                } else {
+                    preloadThreads = Runtime.getRuntime().availableProcessors();
+                }
+
+                currParam = "reload_millis";
+                String rm = (String) params.get(currParam);
+                reloadMillis = 0;
+                if (rm != null) {
+                    reloadMillis = Long.parseLong(rm);
+                }
+
+                preload();
+            } else {
+                snapshot = null;
+                reloadMillis = 0;
+            }
+
+            if ((s != null) && s.equalsIgnoreCase("INDEX")) {
+                currParam = "index_file";
+                String ifn = (String) params.get(currParam);
+                if (ifn == null) {
+                    throw new Exception("missing index file name");
+                }
+                File indexFile = new File(ifn);
+                if (! indexFile.isAbsolute()) {
+                    indexFile = new File(myDir, ifn);
+                }
+                currParam = "index_cache_size";
+                String ics = (String) params.get(currParam);
+                int indexCacheSize = 1000;
+                if (ics != null) {
+                    indexCacheSize = Integer.parseInt(ics);
+                }
+                currParam = "index_file";
+                index = new MappedIndex(indexFile, names, indexCacheSize);
+                logger.info("Mapped " + indexFile + ": " + index.getGroupCount() + " groups and "
+                        + index.getSchemaCount() + " schemas");
+            } else {
+                index = null;
+            }
+        } catch (Exception e) {
+            throw new MetadataProviderException("error reading parameter " + currParam + ": " + e);
         }
+
+        watched = (s != null) && s.equalsIgnoreCase("WATCH");
     }
 
-    private String[] read(String fileName) throws IOException {
-        if (memory != null) {
-            Object found;
-            synchronized (memory) {
-                found = memory.get(fileName);
-                // now the lock is being released;
-                // the worst that can happen is that the file
-                // is read more than once
+    /**
+     * Starts the background checks and reloads of the files, if configured,
+     * then restores the files saved upon the last shutdown.
+     */
+    protected void start() {
+        super.start();
+
+        if (watched) {
+            startWatcher();
+        }
+        if (refreshAheadMillis > 0) {
+            cache.startRefresher(checkMillis, refreshAheadMillis, refreshThreads);
+        }
+        if (reloadMillis > 0) {
+            reloader = Executors.newSingleThreadScheduledExecutor(
+                    new DaemonThreadFactory("Search dir reloader"));
+            reloader.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        preload();
+                    } catch (Exception e) {
+                        // the current contents are kept
+                        logger.log(Level.WARNING, "Error reloading " + myDir, e);
+                    }
+                }
+            }, reloadMillis, reloadMillis, TimeUnit.MILLISECONDS);
+        }
+
+        if (warmStart != null) {
+            // restored after starting the watcher, so that no change is lost
+            if (cache != null) {
+                int count = 0;
+                for (Map.Entry<String, FileCache.Entry> saved : warmStart.files.entrySet()) {
+                    if (warmStart.includes != includes && saved.getKey().endsWith(".items")) {
+                        // the include directives were handled differently
+                        continue;
+                    }
+                    if (cache.restore(saved.getKey(), saved.getValue())) {
+                        count++;
+                    }
+                }
+                logger.info("Restored " + count + " unchanged files out of " + warmStart.files.size()
+                        + " saved for " + myDir);
             }
+            warmStart = null;
+        }
+    }
 
-            if (found != null) {
-                return (String[]) found;
+    /**
+     * Saves the contents of the caches, including the files kept in memory,
+     * most recently used first.
+     */
+    void saveState(WarmStart state) {
+        super.saveState(state);
+        if (cache == null) {
+            return;
+        }
+        state.includes = includes;
+        // the access times are taken once, as requests may still update them
+        List<SavedFile> cached = new ArrayList<SavedFile>();
+        for (Map.Entry<String, FileCache.Entry> file : cache.copyEntries().entrySet()) {
+            cached.add(new SavedFile(file.getKey(), file.getValue()));
+        }
+        Collections.sort(cached);
+        for (int i = 0; i < cached.size(); i++) {
+            SavedFile file = cached.get(i);
+            if (WarmStart.isSavable(file.fileName) && WarmStart.isSavable(file.entry.contents)) {
+                state.files.put(file.fileName, file.entry);
             }
         }
+    }
 
-        File myFile = new File(myDir, fileName);
-        String[] contents = reallyRead(myFile);
+    /**
+     * Determines the directory where all the files are searched,
+     * including the optional file of User names.
+     */
+    protected File getFilesDir(Map<?, ?> params, File dir) {
+        String md = (String) params.get("search_dir");
+        if (md != null) {
+            File mdFile = new File(md);
+            if (! mdFile.isAbsolute()) {
+                mdFile = new File(dir, md);
+            }
+            return mdFile;
+        } else {
+            return dir;
+        }
+    }
 
-        if (memory != null) {
-            synchronized (memory) {
-                memory.put(fileName, contents);
+    private void preload() throws InterruptedException {
+        File[] files = myDir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile() && (name.endsWith(".items") || name.endsWith(".schema"));
             }
+        });
+        if (files == null) {
+            throw new IllegalStateException("cannot list " + myDir);
+        }
+
+        ExecutorService loaders = Executors.newFixedThreadPool(preloadThreads,
+                new DaemonThreadFactory("Search dir loader"));
+        try {
+            List<Future<String[]>> results = new ArrayList<Future<String[]>>(files.length);
+            for (int i = 0; i < files.length; i++) {
+                final File file = files[i];
+                results.add(loaders.submit(new Callable<String[]>() {
+                    public String[] call() throws IOException {
+                        return readUncached(file);
+                    }
+                }));
+            }
+
+            Map<String, String[]> contents = new HashMap<String, String[]>(files.length * 2);
+            for (int i = 0; i < files.length; i++) {
+                try {
+                    String[] list = results.get(i).get();
+                    names.internAll(list);
+                    contents.put(files[i].getName(), list);
+                } catch (ExecutionException e) {
+                    // the file will be read upon each request
+                    logger.warning("Error reading " + files[i] + ": " + e.getCause());
+                }
+            }
+            snapshot = Collections.unmodifiableMap(contents);
+            if (schemaFiles != null) {
+                schemaFiles.clear();
+            }
+            if (missingFiles != null) {
+                missingFiles.clear();
+            }
+            logger.info("Loaded " + contents.size() + " files from " + myDir);
+        } finally {
+            loaders.shutdownNow();
         }
-        return contents;
     }
 
-    private String[] reallyRead(File myFile) throws IOException {
-        ArrayList list = new ArrayList();
-        BufferedReader source = null;
+    private void startWatcher() {
+        final WatchService watcher;
+        try {
+            watcher = myDir.toPath().getFileSystem().newWatchService();
+            myDir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            logger.warning("Cannot watch " + myDir + ", files will be checked upon requests: " + e);
+            checked = true;
+            return;
+        }
+
+        watchService = watcher;
+        Thread thread = new DaemonThreadFactory("Search dir watcher").newThread(new Runnable() {
+            public void run() {
+                watch(watcher);
+            }
+        });
+        thread.start();
+    }
 
+    /**
+     * Stops watching the directory, if watched, so that the files kept
+     * in memory are checked upon requests from then on, as with "CHECK".
+     */
+    void stopWatcher() {
+        WatchService watcher = watchService;
+        if (watcher == null) {
+            return;
+        }
+        watchService = null;
         try {
-            source = new BufferedReader(new FileReader(myFile));
-            String line;
+            watcher.close();
+        } catch (IOException e) {
+            logger.warning("Error closing the watcher of " + myDir + ": " + e);
+        }
+    }
 
+    /**
+     * Stops reloading the directory, if reloaded, so that the files
+     * loaded last are kept from then on.
+     */
+    void stopReloader() {
+        ScheduledExecutorService currReloader = reloader;
+        if (currReloader == null) {
+            return;
+        }
+        reloader = null;
+        currReloader.shutdownNow();
+    }
+
+    private void watch(WatchService watcher) {
+        try {
             while (true) {
-                line = source.readLine();
-                if (line == null) {
-                    break;
+                WatchKey key = watcher.take();
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                    } else {
+                        String fileName = event.context().toString();
+                        cache.discard(fileName);
+                        if (missingFiles != null) {
+                            missingFiles.remove(fileName);
+                        }
+                        if (schemaFiles != null && fileName.endsWith(".schema")) {
+                            schemaFiles.remove(fileName.substring(0, fileName.length() - 7));
+                        }
+                    }
                 }
-                line = line.trim();
-                if (line.equals("")) {
-                    continue;
+                if (overflow) {
+                    logger.info("Too many changes in " + myDir + ", checking all files");
+                    overflow();
                 }
-                if (line.charAt(0) == '#') {
-                    continue;    // comment
+                if (! key.reset()) {
+                    if (watchService == null) {
+                        // stopped on purpose
+                        checked = true;
+                        return;
+                    }
+                    logger.warning("Cannot watch " + myDir + " any longer, files will be checked upon requests");
+                    checked = true;
+                    return;
                 }
-                list.add(line);
             }
-        } finally {
-            if (source != null) {
-                source.close();
+        } catch (InterruptedException e) {
+            checked = true;
+        } catch (ClosedWatchServiceException e) {
+            // stopped on purpose
+            checked = true;
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error watching " + myDir + ", files will be checked upon requests", e);
+            checked = true;
+        }
+    }
+
+    /**
+     * Takes into account changes of the directory whose events have been
+     * lost, by discarding all the files kept in memory that have changed
+     * and forgetting the files taken as missing and the Field Schema
+     * lookups.
+     */
+    void overflow() {
+        cache.revalidateAll();
+        if (schemaFiles != null) {
+            schemaFiles.clear();
+        }
+        if (missingFiles != null) {
+            missingFiles.clear();
+        }
+    }
+
+    private String[] read(String fileName) throws IOException {
+        // the contents kept in memory don't need the missing files
+        String[] kept = readKept(fileName);
+        if (kept != null) {
+            return kept;
+        }
+        if (missingFiles == null) {
+            return readFile(fileName);
+        }
+        MissingFile missing = missingFiles.get(fileName);
+        if (missing != null) {
+            if (System.currentTimeMillis() < missing.expiry) {
+                throw new FileNotFoundException(missing.message);
+            }
+            missingFiles.remove(fileName);
+        }
+        try {
+            return readFile(fileName);
+        } catch (FileNotFoundException e) {
+            // also thrown when the file cannot be opened, which may be temporary
+            if (! new File(myDir, fileName).exists()) {
+                missingFiles.put(fileName, new MissingFile(e.getMessage(), System.currentTimeMillis() + missingMillis));
             }
+            throw e;
         }
-        String[] elems = new String[list.size()];
+    }
+
+    /**
+     * Returns the contents of a file kept in memory and still valid,
+     * or null if the file has to be read.
+     */
+    private String[] readKept(String fileName) {
+        Map<String, String[]> current = snapshot;
+        if (current != null) {
+            String[] found = current.get(fileName);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        if (cache == null) {
+            return null;
+        }
+
+        FileCache.Entry entry = cache.peek(fileName);
+        if (entry != null) {
+            if (! checked) {
+                return cache.hit(entry);
+            }
+            long now = System.currentTimeMillis();
+            if (now - entry.lastCheck < checkMillis) {
+                return cache.hit(entry);
+            }
+            if (entry.isValid(new File(myDir, fileName))) {
+                entry.lastCheck = now;
+                return cache.hit(entry);
+            }
+        }
+        return null;
+    }
 
-        for (int i = 0; i < elems.length; i++) {
-            elems[i] = (String) list.get(i);
+    private String[] readFile(String fileName) throws IOException {
+        if (cache == null) {
+            return readUncached(new File(myDir, fileName));
         }
-        return elems;
+        return cache.load(fileName).contents;
+    }
+
+    /**
+     * Reads a file outside of the cache, which times its own reads.
+     */
+    private String[] readUncached(File file) throws IOException {
+        if (metrics == null) {
+            return NameFileReader.read(file, includes && file.getName().endsWith(".items"));
+        }
+        long start = System.nanoTime();
+        String[] contents;
+        try {
+            contents = NameFileReader.read(file, includes && file.getName().endsWith(".items"));
+        } catch (IOException e) {
+            metrics.fileLoad.record(start, false);
+            throw e;
+        }
+        metrics.fileLoad.record(start, true);
+        return contents;
     }
 
     private String[] readItems(String fileName) throws ItemsException {
         try {
+            if (index != null) {
+                String[] found = index.getItems(fileName);
+                if (found != null) {
+                    return found;
+                }
+            }
+            if (includes) {
+                return expand(fileName, new ArrayList<String>()).items;
+            }
             return read(fileName + ".items");
         } catch (IOException e) {
             throw new ItemsException(e.getClass().getName() + ": "
@@ -195,8 +856,109 @@ public class FileBasedProvider extends LiteralBasedProvider {
         }
     }
 
+    /**
+     * Resolves the include directives of an Item Group, recursively.
+     * The Items of the group file are kept as they are, whereas the included
+     * ones are dropped if already present, so that a new directive does not
+     * change the position of any other Item.
+     * The outcome is reused as long as the contents of the files of all
+     * the groups involved are the same instances it was taken from.
+     *
+     * @param group the Item Group name.
+     * @param path the groups being resolved, which include the current one.
+     */
+    private Expansion expand(String group, List<String> path) throws IOException, ItemsException {
+        String[] raw = read(group + ".items");
+        if (expansions != null) {
+            Expansion found = expansions.get(group);
+            if (found != null && found.sources[0] == raw && isCurrent(found)) {
+                return found;
+            }
+        }
+
+        // the group itself comes first
+        Map<String, String[]> sources = new LinkedHashMap<String, String[]>();
+        sources.put(group, raw);
+        List<String> items = null;
+        Set<String> listed = null;
+        path.add(group);
+        try {
+            for (int i = 0; i < raw.length; i++) {
+                if (! raw[i].startsWith(NameFileReader.INCLUDE)) {
+                    if (items != null) {
+                        items.add(raw[i]);
+                    }
+                    continue;
+                }
+                if (items == null) {
+                    items = new ArrayList<String>(raw.length * 2);
+                    items.addAll(Arrays.asList(raw).subList(0, i));
+                    // the Items listed by the file itself are all kept,
+                    // as in the groups without include directives
+                    listed = new HashSet<String>(raw.length * 2);
+                    for (int j = 0; j < raw.length; j++) {
+                        if (! raw[j].startsWith(NameFileReader.INCLUDE)) {
+                            listed.add(raw[j]);
+                        }
+                    }
+                }
+                String child = raw[i].substring(NameFileReader.INCLUDE.length()).trim();
+                if (path.contains(child)) {
+                    StringBuilder cycle = new StringBuilder("include cycle: ");
+                    for (int j = path.indexOf(child); j < path.size(); j++) {
+                        cycle.append(path.get(j)).append(" -> ");
+                    }
+                    throw new ItemsException(cycle.append(child).toString());
+                }
+                Expansion included = expand(child, path);
+                for (int j = 0; j < included.items.length; j++) {
+                    // the included Items are only kept if new
+                    if (listed.add(included.items[j])) {
+                        items.add(included.items[j]);
+                    }
+                }
+                for (int j = 0; j < included.groups.length; j++) {
+                    if (! sources.containsKey(included.groups[j])) {
+                        sources.put(included.groups[j], included.sources[j]);
+                    }
+                }
+            }
+        } finally {
+            path.remove(path.size() - 1);
+        }
+
+        Expansion expansion;
+        if (items == null) {
+            // no include directives, hence no copies
+            expansion = new Expansion(raw, new String[] { group }, new String[][] { raw });
+        } else {
+            expansion = new Expansion(items.toArray(new String[items.size()]),
+                    sources.keySet().toArray(new String[sources.size()]),
+                    sources.values().toArray(new String[sources.size()][]));
+        }
+        if (expansions != null) {
+            expansions.put(group, expansion);
+        }
+        return expansion;
+    }
+
+    private boolean isCurrent(Expansion expansion) throws IOException {
+        for (int i = 1; i < expansion.groups.length; i++) {
+            if (read(expansion.groups[i] + ".items") != expansion.sources[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private String[] readSchema(String fileName) throws SchemaException {
         try {
+            if (index != null) {
+                String[] found = index.getSchema(fileName);
+                if (found != null) {
+                    return found;
+                }
+            }
             return read(fileName + ".schema");
         } catch (IOException e) {
             throw new SchemaException(e.getClass().getName() + ": "
@@ -204,21 +966,42 @@ public class FileBasedProvider extends LiteralBasedProvider {
         }
     }
 
+    private boolean hasSchema(String fileName) throws SchemaException {
+        try {
+            if (index != null && index.getSchema(fileName) != null) {
+                return true;
+            }
+        } catch (IOException e) {
+            throw new SchemaException(e.getClass().getName() + ": "
+                                      + e.getMessage());
+        }
+        Map<String, String[]> current = snapshot;
+        if (current != null && current.containsKey(fileName + ".schema")) {
+            return true;
+        }
+        return new File(myDir, fileName + ".schema").isFile();
+    }
+
     /**
-     * Resolves an Item Group name supplied in a Request. The names of the Items
-     * in the Group are returned.
-     * <BR>The operation is deferred to a simpler 2-arguments version of the
-     * method, where the sessionID argument is discarded. This also ensures
-     * backward compatibility with old adapter classes derived from this one.
-     *
-     * @param user A User name.
-     * @param sessionID A Session ID. Not used.
-     * @param group An Item Group name.
-     * @return An array with the names of the Items in the Group.
-     * @throws ItemsException  if the file does not exists or cannot be read.
+     * Determines the name of the Field Schema to be used for an Item Group,
+     * by looking for a group-specific Field Schema first.
      */
-    public String[] getItems(String user, String sessionID, String group) throws ItemsException {
-        return getItems(user, group);
+    private String resolveSchema(String group, String schema) throws SchemaException {
+        String override = group + "." + schema;
+        if (schemaFiles == null) {
+            return (hasSchema(override) ? override : schema);
+        }
+        SchemaFile found = schemaFiles.get(override);
+        if (found != null && checked) {
+            if (System.currentTimeMillis() - found.lastCheck >= checkMillis) {
+                found = null;
+            }
+        }
+        if (found == null) {
+            found = new SchemaFile(hasSchema(override), System.currentTimeMillis());
+            schemaFiles.put(override, found);
+        }
+        return (found.overridden ? override : schema);
     }
 
     /**
@@ -236,41 +1019,27 @@ public class FileBasedProvider extends LiteralBasedProvider {
         return readItems(group);
     }
 
-    /**
-     * Resolves a Field Schema name supplied in a Request. The names of the Fields
-     * in the Schema are returned.
-      * <BR>The operation is deferred to a simpler 3-arguments version of the
-     * method, where the sessionID argument is discarded. This also ensures
-     * backward compatibility with old adapter classes derived from this one.
-     *
-     * @param user A User name.
-     * @param sessionID A Session ID. Not used.
-     * @param group The name of the Item Group whose Items the Schema
-     * is to be applied to.
-     * @param schema A Field Schema name.
-     * @return An array with the names of the Fields in the Schema.
-     * @throws SchemaException  if the file does not exists or cannot be read.
-     */
-    public String[] getSchema(String user, String sessionID, String group, String schema)
-            throws SchemaException {
-        return getSchema(user, group, schema);
-    }
-
     /**
      * Resolves a Field Schema name supplied in a Request. The names of the Fields
      * in the Schema are returned.
      * For any supplied Field Schema name, a file with the same name and a ".schema"
      * extension is open and the Field names are read, one for each line.
+     * If group-specific Field Schemas are enabled, a file named after both
+     * the Item Group and the Field Schema, separated by a dot, is preferred,
+     * when available.
      *
      * @param user A User name. Not used.
      * @param group The name of the Item Group whose Items the Schema
-     * is to be applied to. Not used.
+     * is to be applied to. Only used for group-specific Field Schemas.
      * @param schema A Field Schema name.
      * @return An array with the names of the Fields in the Schema.
      * @throws SchemaException  if the file does not exists or cannot be read.
      */
     public String[] getSchema(String user, String group, String schema)
             throws SchemaException {
+        if (groupSchemas) {
+            return readSchema(resolveSchema(group, schema));
+        }
         return readSchema(schema);
     }
 
@@ -0,0 +1,563 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Keeps in memory the contents of the files used by FileBasedProvider. <BR>
+ * Lookups take no lock. When a file has to be read, concurrent requests
+ * for the same file wait for a single read, whereas requests for different
+ * files proceed independently. <BR>
+ * The cache can be limited in the number of files and in the estimated
+ * memory occupation of their contents; when a limit is exceeded, the
+ * least recently used (LRU) or least frequently used (LFU) files are
+ * discarded, down to 90% of the limits. The names read from all files
+ * are shared through a NamePool, so that names listed in many files are
+ * only kept once. <BR>
+ * When the files are checked for changes periodically, the files in use
+ * can also be checked in advance in the background, so that requests
+ * seldom have to access the disk.
+ */
+class FileCache {
+
+    /**
+     * Name of the eviction policy based on the last access time.
+     */
+    static final String LRU = "LRU";
+
+    /**
+     * Name of the eviction policy based on the number of accesses.
+     */
+    static final String LFU = "LFU";
+
+    private static final Logger logger = Logger.getLogger(FileCache.class.getName());
+
+    /**
+     * The contents of a file, together with the file attributes
+     * at the time it was read.
+     */
+    static class Entry {
+        final String[] contents;
+        final long lastModified;
+        final long length;
+        final long bytes;
+        volatile long lastCheck;
+        volatile long lastAccess;
+        // approximate, as concurrent increments may be lost
+        volatile int accesses;
+
+        Entry(String[] contents, long lastModified, long length, long now) {
+            this.contents = contents;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.bytes = estimateBytes(contents);
+            this.lastCheck = now;
+            this.lastAccess = now;
+        }
+
+        /**
+         * Tells whether the file attributes are still the same.
+         */
+        boolean isValid(File myFile) {
+            return myFile.lastModified() == lastModified && myFile.length() == length;
+        }
+    }
+
+    private final File myDir;
+    private final NamePool names;
+    // whether the include directives in .items files are kept
+    private final boolean includes;
+
+    private final ConcurrentHashMap<String, Entry> memory = new ConcurrentHashMap<String, Entry>();
+
+    // the loads in progress, which concurrent requests for the same file wait for
+    private final ConcurrentHashMap<String, FutureTask<Entry>> loading =
+            new ConcurrentHashMap<String, FutureTask<Entry>>();
+
+    // incremented whenever some file is discarded because of a change
+    private final AtomicLong version = new AtomicLong();
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final boolean lfu;
+    private final AtomicInteger entries = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final ReentrantLock evicting = new ReentrantLock();
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final AtomicLong evictions = new AtomicLong();
+    private final LatencyHistogram loadTimes;
+
+    /**
+     * A background check of a file, where the files accessed more
+     * often come first.
+     */
+    private class Refresh implements Runnable, Comparable<Refresh> {
+        private final String fileName;
+        private final Entry entry;
+        private final int accesses;
+
+        private Refresh(String fileName, Entry entry) {
+            this.fileName = fileName;
+            this.entry = entry;
+            this.accesses = entry.accesses;
+        }
+
+        public void run() {
+            try {
+                refresh(fileName, entry);
+            } finally {
+                refreshing.remove(fileName, this);
+            }
+        }
+
+        public int compareTo(Refresh other) {
+            return (accesses > other.accesses ? -1 : (accesses == other.accesses ? 0 : 1));
+        }
+    }
+
+    // the background checks queued or in progress, to avoid duplicates
+    private final ConcurrentHashMap<String, Refresh> refreshing = new ConcurrentHashMap<String, Refresh>();
+
+    /**
+     * A file that may be evicted, where the files less used come first.
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        private final String fileName;
+        private final Entry entry;
+        private final long usage;
+
+        private Candidate(String fileName, Entry entry, long usage) {
+            this.fileName = fileName;
+            this.entry = entry;
+            this.usage = usage;
+        }
+
+        public int compareTo(Candidate other) {
+            return (usage < other.usage ? -1 : (usage == other.usage ? 0 : 1));
+        }
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param myDir the directory which file names are relative to.
+     * @param names the pool that holds the shared instances of the names.
+     * @param maxEntries the maximum number of files, or 0 for no limit.
+     * @param maxBytes the maximum estimated occupation, or 0 for no limit.
+     * @param policy the eviction policy, either "LRU" or "LFU" (case
+     * insensitive); if null, "LRU" is assumed.
+     * @param loadTimes the histogram where file read durations are
+     * recorded, or null.
+     * @param includes whether the include directives found in ".items"
+     * files should be kept in the contents.
+     * @throws IllegalArgumentException in case of invalid arguments.
+     */
+    FileCache(File myDir, NamePool names, int maxEntries, long maxBytes, String policy,
+            LatencyHistogram loadTimes, boolean includes) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("negative cache limit");
+        }
+        if (policy == null || policy.equalsIgnoreCase(LRU)) {
+            lfu = false;
+        } else if (policy.equalsIgnoreCase(LFU)) {
+            lfu = true;
+        } else {
+            throw new IllegalArgumentException("invalid cache policy: " + policy);
+        }
+        this.myDir = myDir;
+        this.names = names;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.loadTimes = loadTimes;
+        this.includes = includes;
+    }
+
+    /**
+     * Estimates the memory occupation of a list of names.
+     */
+    static long estimateBytes(String[] contents) {
+        // array header and references, then, for each name,
+        // String object, char array header and chars
+        long size = 16 + 4L * contents.length;
+        for (int i = 0; i < contents.length; i++) {
+            size += 24 + 16 + 2L * contents[i].length();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the cached contents of a file, or null.
+     * The access is not accounted for, until it is confirmed through
+     * {@link #hit(Entry)}.
+     */
+    Entry peek(String fileName) {
+        return memory.get(fileName);
+    }
+
+    /**
+     * Accounts for an access to a cached file and returns its contents.
+     */
+    String[] hit(Entry entry) {
+        long now = System.currentTimeMillis();
+        if (entry.lastAccess != now) {
+            entry.lastAccess = now;
+        }
+        entry.accesses++;
+        hits.increment();
+        return entry.contents;
+    }
+
+    /**
+     * Reads a file and caches its contents.
+     * If the file is already being read, waits for that read.
+     *
+     * @throws IOException if the file does not exists or cannot be read.
+     */
+    Entry load(String fileName) throws IOException {
+        misses.increment();
+        return loadShared(fileName);
+    }
+
+    private Entry loadShared(final String fileName) throws IOException {
+        FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+            public Entry call() throws IOException {
+                return reallyLoad(fileName);
+            }
+        });
+        FutureTask<Entry> running = loading.putIfAbsent(fileName, task);
+        if (running == null) {
+            running = task;
+            task.run();
+        }
+        // otherwise another thread is already reading the file and we wait for it
+
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + fileName);
+        } finally {
+            if (running == task) {
+                loading.remove(fileName, task);
+            }
+        }
+    }
+
+    private Entry reallyLoad(String fileName) throws IOException {
+        File myFile = new File(myDir, fileName);
+
+        // the file attributes are taken before reading, so that changes
+        // made during the read will be noticed by the next check
+        long currVersion = version.get();
+        long lastModified = myFile.lastModified();
+        long length = myFile.length();
+        long now = System.currentTimeMillis();
+        long start = System.nanoTime();
+        String[] contents;
+        try {
+            contents = NameFileReader.read(myFile, includes && fileName.endsWith(".items"));
+        } catch (IOException e) {
+            if (loadTimes != null) {
+                loadTimes.record(start, false);
+            }
+            remove(fileName);
+            throw e;
+        }
+        if (loadTimes != null) {
+            loadTimes.record(start, true);
+        }
+        names.internAll(contents);
+
+        Entry entry = new Entry(contents, lastModified, length, now);
+        store(fileName, entry);
+        if (version.get() != currVersion) {
+            // the file may have changed while being read
+            // and it will be read again upon the next request
+            remove(fileName, entry);
+        }
+        if (isOverLimits(1.0)) {
+            evict(entry);
+        }
+        return entry;
+    }
+
+    private void store(String fileName, Entry entry) {
+        Entry previous = memory.put(fileName, entry);
+        if (previous == null) {
+            entries.incrementAndGet();
+            bytes.addAndGet(entry.bytes);
+        } else {
+            bytes.addAndGet(entry.bytes - previous.bytes);
+        }
+    }
+
+    private void remove(String fileName) {
+        Entry previous = memory.remove(fileName);
+        if (previous != null) {
+            entries.decrementAndGet();
+            bytes.addAndGet(- previous.bytes);
+        }
+    }
+
+    private boolean remove(String fileName, Entry entry) {
+        if (memory.remove(fileName, entry)) {
+            entries.decrementAndGet();
+            bytes.addAndGet(- entry.bytes);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Discards a file, because it may have changed.
+     */
+    void discard(String fileName) {
+        version.incrementAndGet();
+        remove(fileName);
+    }
+
+    /**
+     * Discards all the files whose attributes have changed.
+     */
+    void revalidateAll() {
+        for (Map.Entry<String, Entry> mapEntry : memory.entrySet()) {
+            File myFile = new File(myDir, mapEntry.getKey());
+            if (! mapEntry.getValue().isValid(myFile)) {
+                discard(mapEntry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Starts checking in the background the files in use that are about
+     * to need a check, so that they are reloaded in advance if changed.
+     * A file is considered in use if it has been accessed since its last
+     * check; the files accessed more often are checked first.
+     *
+     * @param checkMillis the interval between two checks on the same file.
+     * @param aheadMillis how long before the next check is due the files
+     * should be checked; this is also the period of the scans for files
+     * to be checked.
+     * @param threads the number of threads that perform the checks.
+     */
+    void startRefresher(final long checkMillis, final long aheadMillis, int threads) {
+        final ThreadPoolExecutor refreshers = new ThreadPoolExecutor(threads, threads,
+                0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+                new DaemonThreadFactory("Search dir refresher"));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("Search dir refresh scheduler"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                scheduleRefreshes(refreshers, checkMillis, aheadMillis);
+            }
+        }, aheadMillis, aheadMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleRefreshes(Executor refreshers, long checkMillis, long aheadMillis) {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Map.Entry<String, Entry> mapEntry : memory.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            if (entry.lastAccess < entry.lastCheck) {
+                // not in use
+                continue;
+            }
+            if (now - entry.lastCheck < checkMillis - aheadMillis) {
+                // not yet due
+                continue;
+            }
+            Refresh refresh = new Refresh(mapEntry.getKey(), entry);
+            if (refreshing.putIfAbsent(mapEntry.getKey(), refresh) == null) {
+                refreshers.execute(refresh);
+                count++;
+            }
+        }
+        if (count > 0) {
+            logger.finer("Scheduled " + count + " files of " + myDir + " for refresh");
+        }
+    }
+
+    private void refresh(String fileName, Entry entry) {
+        if (memory.get(fileName) != entry) {
+            // already discarded or replaced
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (entry.isValid(new File(myDir, fileName))) {
+            entry.lastCheck = now;
+            return;
+        }
+        try {
+            loadShared(fileName);
+        } catch (IOException e) {
+            // the file has been discarded and requests will report the error
+            logger.fine("Error refreshing " + fileName + " in " + myDir + ": " + e);
+        }
+    }
+
+    /**
+     * Returns a copy of the cached contents, by file name.
+     */
+    Map<String, Entry> copyEntries() {
+        return new HashMap<String, Entry>(memory);
+    }
+
+    /**
+     * Caches the contents of a file read in a previous run, provided that
+     * the file is unchanged, that it is not cached yet and that the limits
+     * allow.
+     *
+     * @return true if the contents have been cached.
+     */
+    boolean restore(String fileName, Entry entry) {
+        if (memory.containsKey(fileName) || ! entry.isValid(new File(myDir, fileName))) {
+            return false;
+        }
+        if ((maxEntries > 0 && entries.get() >= maxEntries)
+                || (maxBytes > 0 && bytes.get() + entry.bytes > maxBytes)) {
+            return false;
+        }
+        names.internAll(entry.contents);
+        store(fileName, entry);
+        return true;
+    }
+
+    private boolean isOverLimits(double ratio) {
+        return (maxEntries > 0 && entries.get() > maxEntries * ratio)
+                || (maxBytes > 0 && bytes.get() > maxBytes * ratio);
+    }
+
+    /**
+     * Discards the files less used, but the one just read, which, with LFU,
+     * would always come first, as it was not accessed yet; it is only
+     * discarded if the others are not enough.
+     */
+    private void evict(Entry added) {
+        if (! evicting.tryLock()) {
+            // another thread is already taking care
+            return;
+        }
+        try {
+            // the sort keys are taken once, as the entries keep being
+            // accessed meanwhile and the order has to stay consistent
+            List<Candidate> candidates = new ArrayList<Candidate>(memory.size());
+            for (Map.Entry<String, Entry> mapEntry : memory.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                candidates.add(new Candidate(mapEntry.getKey(), entry, lfu ? entry.accesses : entry.lastAccess));
+            }
+            Collections.sort(candidates);
+
+            int count = 0;
+            Candidate last = null;
+            for (int i = 0; i < candidates.size() && isOverLimits(0.9); i++) {
+                Candidate candidate = candidates.get(i);
+                if (candidate.entry == added) {
+                    last = candidate;
+                } else if (remove(candidate.fileName, candidate.entry)) {
+                    count++;
+                }
+            }
+            if (last != null && isOverLimits(1.0) && remove(last.fileName, last.entry)) {
+                count++;
+            }
+            if (lfu) {
+                // let old accesses count less than new ones
+                for (Entry entry : memory.values()) {
+                    entry.accesses /= 2;
+                }
+            }
+            evictions.addAndGet(count);
+            logger.fine("Evicted " + count + " files from " + myDir + "; "
+                    + entries.get() + " files and about " + bytes.get() + " bytes left");
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests served from memory.
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that needed a file read.
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of files discarded because of the limits.
+     */
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of files in memory.
+     */
+    int getEntries() {
+        return entries.get();
+    }
+
+    /**
+     * Returns the estimated memory occupation of the files in memory.
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+}
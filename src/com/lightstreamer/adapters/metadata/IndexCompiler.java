@@ -0,0 +1,197 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Offline tool that compiles all the ".items" and ".schema" files in a
+ * directory into a single index file, which can be used by
+ * FileBasedProvider in place of the directory, by setting "INDEX" in the
+ * "static" parameter. <BR>
+ * Each distinct name is stored only once in the index file, regardless
+ * of how many Item Groups and Field Schemas it appears in.
+ * As in FileBasedProvider, "#include" lines are taken as comments,
+ * unless the "-group_includes" option is supplied, for directories meant
+ * for the "group_includes" parameter; in that case, Item Groups composed
+ * of other Item Groups are refused, as the index holds no directives. <BR>
+ * Usage:
+ * <PRE>
+ * java -cp ls-generic-adapters.jar com.lightstreamer.adapters.metadata.IndexCompiler [-group_includes] &lt;search_dir&gt; &lt;index_file&gt;
+ * </PRE>
+ */
+public class IndexCompiler {
+
+    private final List<String> strings = new ArrayList<String>();
+    private final HashMap<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+    private IndexCompiler() {
+    }
+
+    /**
+     * Compiles a directory into an index file.
+     *
+     * @param args the optional "-group_includes" option, the directory
+     * with the ".items" and ".schema" files and the path of the index file
+     * to be written.
+     * @throws IOException if some file cannot be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean includes = (args.length == 3 && args[0].equals("-group_includes"));
+        if (args.length != (includes ? 3 : 2)) {
+            System.err.println("Usage: IndexCompiler [-group_includes] <search_dir> <index_file>");
+            System.exit(2);
+        }
+        int first = (includes ? 1 : 0);
+        File index = new File(args[first + 1]);
+        compile(new File(args[first]), index, includes);
+        System.out.println("Written " + index);
+    }
+
+    /**
+     * Compiles a directory into an index file.
+     *
+     * @param dir the directory with the ".items" and ".schema" files.
+     * @param index the index file to be written; an existing file
+     * is replaced, not modified.
+     * @throws IOException if some file cannot be read or written.
+     */
+    public static void compile(File dir, File index) throws IOException {
+        compile(dir, index, false);
+    }
+
+    /**
+     * Compiles a directory into an index file.
+     *
+     * @param dir the directory with the ".items" and ".schema" files.
+     * @param index the index file to be written; an existing file
+     * is replaced, not modified.
+     * @param includes whether the ".items" files are meant for the
+     * "group_includes" parameter, hence "#include" lines should be refused
+     * rather than taken as comments.
+     * @throws IOException if some file cannot be read or written.
+     */
+    public static void compile(File dir, File index, boolean includes) throws IOException {
+        File[] groupFiles = list(dir, ".items");
+        File[] schemaFiles = list(dir, ".schema");
+
+        IndexCompiler compiler = new IndexCompiler();
+        byte[] groupSection = compiler.compileSection(groupFiles, ".items", includes);
+        byte[] schemaSection = compiler.compileSection(schemaFiles, ".schema", false);
+
+        // the index may be mapped by a running Adapter, hence it is
+        // replaced as a whole rather than overwritten in place
+        File tmpIndex = new File(index.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpIndex)));
+        try {
+            out.writeInt(MappedIndex.MAGIC);
+            out.writeInt(MappedIndex.VERSION);
+            compiler.writeStrings(out);
+            out.write(groupSection);
+            out.write(schemaSection);
+        } finally {
+            out.close();
+        }
+        Files.move(tmpIndex.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static File[] list(File dir, final String extension) throws IOException {
+        File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(extension);
+            }
+        });
+        if (files == null) {
+            throw new IOException("cannot list " + dir);
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private int indexOf(String string) {
+        Integer found = stringIndexes.get(string);
+        if (found != null) {
+            return found.intValue();
+        }
+        int index = strings.size();
+        strings.add(string);
+        stringIndexes.put(string, Integer.valueOf(index));
+        return index;
+    }
+
+    private byte[] compileSection(File[] files, String extension, boolean includes) throws IOException {
+        ByteArrayOutputStream listBytes = new ByteArrayOutputStream();
+        DataOutputStream lists = new DataOutputStream(listBytes);
+        int[] nameIndexes = new int[files.length];
+        int[] listOffsets = new int[files.length];
+
+        for (int i = 0; i < files.length; i++) {
+            String fileName = files[i].getName();
+            nameIndexes[i] = indexOf(fileName.substring(0, fileName.length() - extension.length()));
+            listOffsets[i] = lists.size();
+            // the include directives could not be resolved
+            String[] names = NameFileReader.read(files[i], includes);
+            lists.writeInt(names.length);
+            for (int j = 0; j < names.length; j++) {
+                if (includes && names[j].startsWith(NameFileReader.INCLUDE)) {
+                    throw new IOException("cannot compile " + files[i] + ", include directives are not supported: " + names[j]);
+                }
+                lists.writeInt(indexOf(names[j]));
+            }
+        }
+        lists.flush();
+
+        ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+        DataOutputStream section = new DataOutputStream(sectionBytes);
+        section.writeInt(files.length);
+        for (int i = 0; i < files.length; i++) {
+            section.writeInt(nameIndexes[i]);
+            section.writeInt(listOffsets[i]);
+        }
+        section.writeInt(listBytes.size());
+        listBytes.writeTo(section);
+        section.flush();
+        return sectionBytes.toByteArray();
+    }
+
+    private void writeStrings(DataOutputStream out) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        out.writeInt(strings.size());
+        out.writeInt(0);
+        for (int i = 0; i < strings.size(); i++) {
+            data.write(strings.get(i).getBytes(MappedIndex.UTF8));
+            out.writeInt(data.size());
+        }
+        out.writeInt(data.size());
+        data.writeTo(out);
+    }
+
+}
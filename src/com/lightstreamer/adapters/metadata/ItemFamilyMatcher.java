@@ -0,0 +1,284 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the first one, in a list of patterns, that matches a name. <BR>
+ * All the patterns are analyzed once, upon construction. Patterns made of
+ * a literal followed by ".*" are stored in a trie of literal prefixes and
+ * patterns made of a literal only are stored in a hash table; in both cases,
+ * the cost of a lookup only depends on the length of the name.
+ * All the other patterns are combined in a single alternation, so that
+ * they are evaluated through one Matcher rather than one Matcher per
+ * pattern. Patterns that cannot be safely combined (for instance, those
+ * containing back references) are evaluated one by one.
+ * In any case, the outcome is the same as trying the patterns in order
+ * and stopping at the first one that matches the whole name.
+ */
+class ItemFamilyMatcher {
+
+    private static final String META_CHARS = "\\^$.|?*+()[]{}";
+
+    private static class TrieNode {
+        // index of the first pattern whose literal prefix ends here, or -1
+        private int index = -1;
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+
+        private TrieNode child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private TrieNode addChild(char c) {
+            TrieNode found = child(c);
+            if (found != null) {
+                return found;
+            }
+            int n = keys.length;
+            char[] newKeys = new char[n + 1];
+            TrieNode[] newChildren = new TrieNode[n + 1];
+            System.arraycopy(keys, 0, newKeys, 0, n);
+            System.arraycopy(children, 0, newChildren, 0, n);
+            newKeys[n] = c;
+            newChildren[n] = new TrieNode();
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[n];
+        }
+    }
+
+    private final int size;
+
+    private final TrieNode prefixes;
+    private final boolean hasPrefixes;
+
+    private final HashMap<String, Integer> literals;
+
+    private final Pattern combined;
+    // for each alternative in the combined pattern, the pattern index
+    // and the number of the capturing group that encloses it
+    private final int[] combinedIndexes;
+    private final int[] combinedGroups;
+
+    private final Pattern[] standalone;
+    private final int[] standaloneIndexes;
+
+    /**
+     * Analyzes the patterns.
+     *
+     * @param patterns the patterns, in priority order.
+     */
+    ItemFamilyMatcher(Pattern[] patterns) {
+        size = patterns.length;
+        prefixes = new TrieNode();
+        literals = new HashMap<String, Integer>();
+
+        boolean anyPrefix = false;
+        StringBuilder alternation = new StringBuilder();
+        List<Integer> combinedList = new ArrayList<Integer>();
+        List<Integer> groupList = new ArrayList<Integer>();
+        List<Integer> standaloneList = new ArrayList<Integer>();
+        int nextGroup = 1;
+
+        for (int i = 0; i < patterns.length; i++) {
+            String source = patterns[i].pattern();
+            if (patterns[i].flags() == 0) {
+                if (source.endsWith(".*")) {
+                    String prefix = toLiteral(source.substring(0, source.length() - 2));
+                    if (prefix != null) {
+                        TrieNode node = prefixes;
+                        for (int c = 0; c < prefix.length(); c++) {
+                            node = node.addChild(prefix.charAt(c));
+                        }
+                        if (node.index < 0) {
+                            node.index = i;
+                        }
+                        anyPrefix = true;
+                        continue;
+                    }
+                } else {
+                    String literal = toLiteral(source);
+                    if (literal != null) {
+                        if (! literals.containsKey(literal)) {
+                            literals.put(literal, Integer.valueOf(i));
+                        }
+                        continue;
+                    }
+                }
+            }
+            if (patterns[i].flags() == 0 && isCombinable(source)) {
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append('(').append(source).append(')');
+                combinedList.add(Integer.valueOf(i));
+                groupList.add(Integer.valueOf(nextGroup));
+                nextGroup += 1 + patterns[i].matcher("").groupCount();
+            } else {
+                standaloneList.add(Integer.valueOf(i));
+            }
+        }
+        hasPrefixes = anyPrefix;
+
+        if (combinedList.isEmpty()) {
+            combined = null;
+        } else {
+            combined = Pattern.compile(alternation.toString());
+        }
+        combinedIndexes = toArray(combinedList);
+        combinedGroups = toArray(groupList);
+
+        standaloneIndexes = toArray(standaloneList);
+        standalone = new Pattern[standaloneIndexes.length];
+        for (int i = 0; i < standalone.length; i++) {
+            standalone[i] = patterns[standaloneIndexes[i]];
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i).intValue();
+        }
+        return array;
+    }
+
+    /**
+     * Returns the literal string matched by a regular expression,
+     * or null if the expression is not a plain literal.
+     */
+    private static String toLiteral(String regex) {
+        StringBuilder literal = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 == regex.length()) {
+                    return null;
+                }
+                char next = regex.charAt(++i);
+                if (Character.isLetterOrDigit(next)) {
+                    // a character class or a special escape
+                    return null;
+                }
+                literal.append(next);
+            } else if (META_CHARS.indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Tells whether a regular expression keeps its meaning when it is
+     * enclosed in a group of a larger expression.
+     */
+    private static boolean isCombinable(String regex) {
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                char next = regex.charAt(++i);
+                if (Character.isDigit(next) || next == 'k' || next == 'Q') {
+                    // back references and quotations
+                    return false;
+                }
+            } else if (c == '(' && regex.startsWith("(?<", i)
+                    && i + 3 < regex.length() && Character.isLetter(regex.charAt(i + 3))) {
+                // named groups may clash with the ones in other patterns
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Returns the index of the first pattern that matches a name,
+     * or -1 if no pattern matches.
+     */
+    int match(String name) {
+        int best = size;
+
+        Integer literal = literals.get(name);
+        if (literal != null) {
+            best = literal.intValue();
+        }
+
+        if (hasPrefixes) {
+            // as "." does not match line terminators, a prefix only counts
+            // if the rest of the name contains none
+            int minDepth = 0;
+            for (int i = name.length() - 1; i >= 0; i--) {
+                if (isLineTerminator(name.charAt(i))) {
+                    minDepth = i + 1;
+                    break;
+                }
+            }
+            TrieNode node = prefixes;
+            for (int depth = 0; node != null; depth++) {
+                if (node.index >= 0 && node.index < best && depth >= minDepth) {
+                    best = node.index;
+                }
+                if (depth == name.length()) {
+                    break;
+                }
+                node = node.child(name.charAt(depth));
+            }
+        }
+
+        if (combined != null && combinedIndexes[0] < best) {
+            Matcher matcher = combined.matcher(name);
+            if (matcher.matches()) {
+                for (int i = 0; i < combinedGroups.length; i++) {
+                    if (matcher.start(combinedGroups[i]) >= 0) {
+                        if (combinedIndexes[i] < best) {
+                            best = combinedIndexes[i];
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < standalone.length && standaloneIndexes[i] < best; i++) {
+            if (standalone[i].matcher(name).matches()) {
+                best = standaloneIndexes[i];
+                break;
+            }
+        }
+
+        return (best < size ? best : -1);
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expands Item List specifications written in a compact syntax. <BR>
+ * Each space separated name in the specification may contain numeric
+ * ranges, like "item[1-2000]", which stands for the names from "item1"
+ * to "item2000", and sets of alternatives, like "item{A,B}", which stands
+ * for "itemA" and "itemB"; both can be combined in the same name, like
+ * "item{A,B}[1-3]", and, when the lower bound of a range has leading
+ * zeros, like "item[001-100]", all numbers are padded to the same length.
+ * Names containing no ranges and no sets are taken as they are.
+ * The outcome is the same as a specification listing all the names.
+ */
+class ItemListExpander {
+
+    private final int maxNames;
+
+    /**
+     * Creates an expander.
+     *
+     * @param maxNames the maximum number of names a specification may
+     * expand to.
+     */
+    ItemListExpander(int maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    /**
+     * Tells whether a specification uses the compact syntax.
+     */
+    static boolean isCompact(String spec) {
+        return spec.indexOf('[') >= 0 || spec.indexOf('{') >= 0;
+    }
+
+    /**
+     * Returns the names represented by a specification.
+     *
+     * @param names the space separated names in the specification.
+     * @throws IllegalArgumentException if the syntax is not valid or
+     * the names would be too many.
+     */
+    String[] expand(String[] names) {
+        List<String> list = new ArrayList<String>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            if (! isCompact(names[i])) {
+                if (list.size() >= maxNames) {
+                    throw tooMany();
+                }
+                list.add(names[i]);
+                continue;
+            }
+            List<String> expanded = expandName(names[i], maxNames - list.size());
+            for (int j = 0; j < expanded.size(); j++) {
+                if (expanded.get(j).length() == 0) {
+                    throw new IllegalArgumentException("empty Item name in " + names[i]);
+                }
+            }
+            list.addAll(expanded);
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    private IllegalArgumentException tooMany() {
+        return new IllegalArgumentException("Item List expands to more than " + maxNames + " Items");
+    }
+
+    private List<String> expandName(String name, int limit) {
+        if (limit < 1) {
+            throw tooMany();
+        }
+        int open = -1;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '[' || c == '{') {
+                open = i;
+                break;
+            }
+        }
+        List<String> expanded = new ArrayList<String>();
+        if (open < 0) {
+            expanded.add(name);
+            return expanded;
+        }
+
+        char closing = (name.charAt(open) == '[' ? ']' : '}');
+        int close = name.indexOf(closing, open + 1);
+        if (close < 0) {
+            throw new IllegalArgumentException("unterminated " + name.charAt(open) + " in " + name);
+        }
+        String prefix = name.substring(0, open);
+        String body = name.substring(open + 1, close);
+
+        List<String> parts;
+        if (closing == ']') {
+            parts = expandRange(body, name, limit);
+        } else {
+            parts = expandSet(body, name);
+        }
+        List<String> tails = expandName(name.substring(close + 1), limit / parts.size());
+        if ((long) parts.size() * tails.size() > limit) {
+            throw tooMany();
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            for (int j = 0; j < tails.size(); j++) {
+                expanded.add(prefix + parts.get(i) + tails.get(j));
+            }
+        }
+        return expanded;
+    }
+
+    private List<String> expandRange(String body, String name, int limit) {
+        int dash = body.indexOf('-');
+        if (dash < 0 || ! isNumber(body.substring(0, dash)) || ! isNumber(body.substring(dash + 1))) {
+            throw new IllegalArgumentException("invalid range [" + body + "] in " + name);
+        }
+        String from = body.substring(0, dash);
+        long start = Long.parseLong(from);
+        long end = Long.parseLong(body.substring(dash + 1));
+        if (start > end) {
+            throw new IllegalArgumentException("invalid range [" + body + "] in " + name);
+        }
+        if (end - start >= limit) {
+            throw tooMany();
+        }
+        // a leading zero asks for numbers of fixed length
+        int width = (from.length() > 1 && from.charAt(0) == '0' ? from.length() : 0);
+
+        List<String> parts = new ArrayList<String>((int) (end - start + 1));
+        StringBuilder buf = new StringBuilder();
+        for (long n = start; n <= end; n++) {
+            String digits = Long.toString(n);
+            buf.setLength(0);
+            for (int i = digits.length(); i < width; i++) {
+                buf.append('0');
+            }
+            parts.add(buf.append(digits).toString());
+        }
+        return parts;
+    }
+
+    private static boolean isNumber(String str) {
+        if (str.length() == 0 || str.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) < '0' || str.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<String> expandSet(String body, String name) {
+        if (body.indexOf('[') >= 0 || body.indexOf('{') >= 0) {
+            throw new IllegalArgumentException("nested set {" + body + "} in " + name);
+        }
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        while (true) {
+            int comma = body.indexOf(',', start);
+            if (comma < 0) {
+                parts.add(body.substring(start));
+                return parts;
+            }
+            parts.add(body.substring(start, comma));
+            start = comma + 1;
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Low-overhead histogram of the durations of the calls to some method. <BR>
+ * Durations are recorded in buckets whose width grows exponentially,
+ * with four buckets for each power of two, so that the percentiles are
+ * estimated with an error within 25%. As with StripedCounter, the updates
+ * are spread over per-thread stripes, to avoid contention.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 2;
+    private static final int SUBS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUBS;
+    private static final int STRIPES = 8;
+    private static final long RATE_SAMPLE_MILLIS = 1000;
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    private final StripedCounter errors = new StripedCounter();
+    private final AtomicLong max = new AtomicLong();
+
+    // the last two samples of the count, for the current rate
+    private long prevCount;
+    private long prevMillis = System.currentTimeMillis();
+    private long lastCount;
+    private long lastMillis = prevMillis;
+
+    private static int bucket(long nanos) {
+        if (nanos < SUBS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int log = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (log - SUB_BITS)) & (SUBS - 1);
+        return log * SUBS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUBS) {
+            return bucket;
+        }
+        int log = bucket / SUBS;
+        int sub = bucket % SUBS;
+        return ((long) (SUBS + sub + 1) << (log - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Records a call.
+     *
+     * @param startNanos the value of System.nanoTime() when the call started.
+     * @param ok false if the call ended with an exception.
+     */
+    void record(long startNanos, boolean ok) {
+        long nanos = System.nanoTime() - startNanos;
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        counts.incrementAndGet(stripe * BUCKETS + bucket(nanos));
+        if (! ok) {
+            errors.increment();
+        }
+        long currMax = max.get();
+        while (nanos > currMax) {
+            if (max.compareAndSet(currMax, nanos)) {
+                break;
+            }
+            currMax = max.get();
+        }
+    }
+
+    private long[] snapshot() {
+        long[] totals = new long[BUCKETS];
+        for (int s = 0; s < STRIPES; s++) {
+            for (int b = 0; b < BUCKETS; b++) {
+                totals[b] += counts.get(s * BUCKETS + b);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Returns the number of calls recorded.
+     */
+    long getCount() {
+        long[] totals = snapshot();
+        long count = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            count += totals[b];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of calls ended with an exception.
+     */
+    long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Returns the current number of calls per second. The count is sampled
+     * upon each request, but not more than once per second, and the rate
+     * is measured since the second last sample, hence on a period that
+     * ends now and covers at least the last second.
+     */
+    synchronized double getRate() {
+        long now = System.currentTimeMillis();
+        long count = getCount();
+        if (now - lastMillis >= RATE_SAMPLE_MILLIS) {
+            prevCount = lastCount;
+            prevMillis = lastMillis;
+            lastCount = count;
+            lastMillis = now;
+        }
+        long elapsed = now - prevMillis;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (count - prevCount) * 1000.0 / elapsed;
+    }
+
+    /**
+     * Returns an estimate of a percentile of the durations, in microseconds.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     */
+    double getPercentileMicros(double percentile) {
+        long[] totals = snapshot();
+        long count = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            count += totals[b];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(count * percentile / 100.0);
+        long cumulated = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            cumulated += totals[b];
+            if (cumulated >= threshold && cumulated > 0) {
+                return upperBound(b) / 1000.0;
+            }
+        }
+        return upperBound(BUCKETS - 1) / 1000.0;
+    }
+
+    /**
+     * Returns the maximum duration, in microseconds.
+     */
+    double getMaxMicros() {
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * Restarts the recording; concurrent records may get lost.
+     */
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        errors.reset();
+        max.set(0);
+        synchronized (this) {
+            prevCount = 0;
+            lastCount = 0;
+            prevMillis = System.currentTimeMillis();
+            lastMillis = prevMillis;
+        }
+    }
+
+}
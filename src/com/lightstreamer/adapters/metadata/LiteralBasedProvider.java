@@ -19,12 +19,18 @@
 package com.lightstreamer.adapters.metadata;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import com.lightstreamer.interfaces.metadata.AccessException;
@@ -33,7 +39,9 @@ import com.lightstreamer.interfaces.metadata.ItemsException;
 import com.lightstreamer.interfaces.metadata.MetadataProviderAdapter;
 import com.lightstreamer.interfaces.metadata.MetadataProviderException;
 import com.lightstreamer.interfaces.metadata.Mode;
+import com.lightstreamer.interfaces.metadata.NotificationException;
 import com.lightstreamer.interfaces.metadata.SchemaException;
+import com.lightstreamer.interfaces.metadata.TableInfo;
 
 /**
  * Simple full implementation of a Metadata Adapter, made available
@@ -48,8 +56,31 @@ import com.lightstreamer.interfaces.metadata.SchemaException;
  * The handling of Item List and Field List specifications is required by
  * some optional methods in the client APIs that take advantage of Item Lists
  * and Field Lists. <BR>
+ * As many Clients may send the same specifications, the outcome of the
+ * parsing can be remembered, by supplying the maximum number of
+ * specifications to be remembered in a "list_cache_size" parameter; the
+ * policy used to forget specifications when the limit is reached can be
+ * supplied in a "list_cache_policy" parameter, as either LRU (the default)
+ * or FIFO. In this case, the Item and Field names are also shared among
+ * the remembered specifications, up to a number of names that can be
+ * supplied in a "list_name_pool_size" parameter (the default is 10 times the
+ * number of specifications). <BR>
+ * Item List specifications may also be written in a compact syntax, if a
+ * "compact_item_lists" parameter containing "Y" is supplied. In this case,
+ * each name in the List may contain numeric ranges, like "item[1-2000]",
+ * which stands for the names from "item1" to "item2000", and sets of
+ * alternatives, like "item{A,B}", which stands for "itemA" and "itemB";
+ * a range whose lower bound has leading zeros, like "item[001-100]",
+ * yields names padded to the same length. The number of names a
+ * specification may expand to is limited by a "max_item_list_expansion"
+ * parameter (the default is 10000); longer or malformed specifications
+ * are refused. The expanded Lists are remembered, up to a number of
+ * specifications that can be supplied in a "compact_list_cache_size"
+ * parameter (the default is 100; 0 means none), so that the memory they
+ * take is limited by the product of the two parameters. <BR>
  * 
- * The resource levels are assigned the same for all Items and Users,
+ * The resource levels are assigned the same for all Users and, unless
+ * otherwise configured for Item families (see below), for all Items,
  * according with values that can be supplied together with adapter
  * configuration, inside the "metadata_provider" element that defines the
  * Adapter. <BR>
@@ -82,10 +113,73 @@ import com.lightstreamer.interfaces.metadata.SchemaException;
  * Items that do not belong to any family are not allowed in any Mode;
  * however, if no families are defined at all, then all Items are allowed
  * in all Modes and the Clients should ensure that the same Item cannot be
- * requested in two conflicting Modes. <BR>
+ * requested in two conflicting Modes.
+ * Patterns formed by a literal prefix followed by ".*" are recognized and
+ * handled in a faster way than generic patterns. <BR>
+ * The resource limits can also be supplied on a family basis, through
+ * parameters named "max_frequency_for_item_family_&lt;n&gt;",
+ * "buffer_size_for_item_family_&lt;n&gt;",
+ * "prefilter_frequency_for_item_family_&lt;n&gt;" and
+ * "distinct_snapshot_length_for_item_family_&lt;n&gt;"; the limits not
+ * supplied for a family, as well as the limits for Items that don't belong
+ * to any family, are the global ones. As the per-Item methods then need
+ * to determine the family of the Item, the families are remembered, as
+ * described below, by default; if no family-specific limits are
+ * supplied, the global ones are returned without any matching. <BR>
+ * The family assigned to each Item can be remembered, to avoid matching
+ * the Item name against the patterns at each new request, by supplying
+ * the maximum number of Items to be remembered in a
+ * "family_cache_size" parameter (the default is 10000 if family-specific
+ * limits are supplied and 0, which means nothing is remembered, otherwise);
+ * the policy used to forget Items when the limit is reached can be
+ * supplied in a "family_cache_policy" parameter, as either LRU
+ * (the default) or FIFO. <BR>
+ * The values returned by getAllowedMaxItemFrequency and
+ * getMinSourceFrequency can also be reduced automatically under high load,
+ * by supplying an "adaptive_limits" parameter containing "Y". In this case,
+ * the load is evaluated periodically, with the period, in milliseconds,
+ * supplied in an "adaptive_interval_millis" parameter (the default is 5000),
+ * as the ratio between the observed rate of new Sessions and Subscriptions
+ * and the target rate supplied in an "adaptive_target_request_rate"
+ * parameter, or between the number of subscribed Items and the target
+ * supplied in an "adaptive_target_subscriptions" parameter, whichever is
+ * higher (at least one target is needed). The load is smoothed by an
+ * exponential moving average, where the weight of a new measure can be
+ * supplied in an "adaptive_smoothing" parameter (the default is 0.3),
+ * and, when the smoothed load exceeds 1, the limits are divided by it,
+ * but they are never reduced below the fraction supplied in an
+ * "adaptive_min_factor" parameter (the default is 0.1). Unlimited
+ * frequencies stay unlimited. Any change is logged. <BR>
+ * The Items and Subscriptions held by each User, over all the Sessions of
+ * the User, can be limited by supplying a "max_items_per_user" and a
+ * "max_subscriptions_per_user" parameter (by default, there is no limit);
+ * requests for new Subscriptions that would exceed a limit are refused
+ * by notifyNewTables with a CreditsException, whose client error code is
+ * -1 for the Items and -2 for the Subscriptions. Sessions opened without
+ * a User name are not subject to these limits. <BR>
+ * The contents of the caches can also be saved to a file upon shutdown and
+ * restored upon the next startup, so that the first requests after a restart
+ * can be served from memory, by supplying the path of the file, relative to
+ * the configuration directory, in a "warm_start_file" parameter. Only the
+ * families remembered for the Items are saved, and they are only restored
+ * if the family patterns are unchanged. <BR>
+ * Statistics on the calls to notifyUser, getItems, getSchema and
+ * modeMayBeAllowed (call counts and rates, exceptions and latency
+ * percentiles) are published through JMX, as an MBean named
+ * "com.lightstreamer.adapters.metadata:type=&lt;class&gt;,name=&lt;id&gt;",
+ * where &lt;id&gt; is the id of the Adapter Set, unless a "metrics" parameter
+ * containing "N" is supplied, in which case no statistics are collected.
+ * Each Adapter instance registers its own MBean, together with a shutdown
+ * hook that removes it upon JVM shutdown. <BR>
  * There are no access restrictions, but an optional User name check is
  * performed if a comma separated list of User names is supplied in an
- * "allowed_users" parameter. <BR>
+ * "allowed_users" parameter. User names can also be listed, one per line,
+ * in a file whose path, relative to the configuration directory, is supplied
+ * in an "allowed_users_file" parameter; the file has the same format as
+ * the files used by FileBasedProvider and it is checked for changes with
+ * the period, in milliseconds, supplied in an "allowed_users_check_millis"
+ * parameter (the default is 5000; 0 means that changes are ignored);
+ * upon changes, the new list replaces the old one as a whole. <BR>
  * 
  * The following snippet shows an example of configuration of this Adapter
  * in adapters.xml:
@@ -113,6 +207,32 @@ import com.lightstreamer.interfaces.metadata.SchemaException;
     <param name="distinct_snapshot_length">10</param>
      -->
 
+    <!-- Optional.
+         Define the maximum number of Item List and Field List
+         specifications whose parsing outcome is remembered, to save
+         the parsing on subsequent requests, the policy (LRU or FIFO)
+         used to forget specifications when the limit is reached and
+         the maximum number of distinct Item and Field names to be shared
+         among the remembered specifications.
+         By default, nothing is remembered. -->
+    <!--
+    <param name="list_cache_size">10000</param>
+    <param name="list_cache_policy">LRU</param>
+    <param name="list_name_pool_size">100000</param>
+     -->
+
+    <!-- Optional.
+         Enable a compact syntax for Item List specifications, where names
+         like item[1-2000] and item{A,B} are expanded to ranges and sets
+         of names; also define the maximum number of names a specification
+         may expand to and the maximum number of expanded specifications
+         remembered. -->
+    <!--
+    <param name="compact_item_lists">Y</param>
+    <param name="max_item_list_expansion">10000</param>
+    <param name="compact_list_cache_size">100</param>
+     -->
+
     <!-- Optional.
          Define comma-separated list of User names to be checked
          for allowance by the notifyUser() method. -->
@@ -120,6 +240,56 @@ import com.lightstreamer.interfaces.metadata.SchemaException;
     <param name="allowed_users">user123,user456</param>
      -->
 
+    <!-- Optional.
+         Define the path of a file, relative to the configuration
+         directory, which lists User names to be checked for allowance
+         by the notifyUser() method, one per line, and the period, in
+         milliseconds, of the checks for changes in the file
+         (0 means never; the default is 5000). -->
+    <!--
+    <param name="allowed_users_file">users.txt</param>
+    <param name="allowed_users_check_millis">5000</param>
+     -->
+
+    <!-- Optional.
+         Define whether the values returned by getAllowedMaxItemFrequency()
+         and getMinSourceFrequency() should be reduced automatically under
+         high load, where the load is measured against a target rate of
+         new sessions and subscriptions and a target number of subscribed
+         items; also define the lowest reduction factor, the weight of a
+         new load measure in the smoothing and the measure period. -->
+    <!--
+    <param name="adaptive_limits">Y</param>
+    <param name="adaptive_target_request_rate">500</param>
+    <param name="adaptive_target_subscriptions">1000000</param>
+    <param name="adaptive_min_factor">0.2</param>
+    <param name="adaptive_smoothing">0.3</param>
+    <param name="adaptive_interval_millis">5000</param>
+     -->
+
+    <!-- Optional.
+         Define the maximum number of Items and of Subscriptions that
+         each User can hold at the same time, over all its Sessions. -->
+    <!--
+    <param name="max_items_per_user">1000</param>
+    <param name="max_subscriptions_per_user">100</param>
+     -->
+
+    <!-- Optional.
+         Define a file where the contents of the caches are saved upon
+         shutdown, to be restored upon the next startup. -->
+    <!--
+    <param name="warm_start_file">warm_start.bin</param>
+     -->
+
+    <!-- Optional.
+         Define whether statistics on the calls from the Server are
+         published through JMX (default Y); if so, each adapter instance
+         registers its own MBean and a shutdown hook that removes it. -->
+    <!--
+    <param name="metrics">N</param>
+     -->
+
     <!-- Optional.
          Define how the modeMayBeAllowed method should behave, by
          associating to each item the modes in which it can be managed
@@ -144,6 +314,32 @@ import com.lightstreamer.interfaces.metadata.SchemaException;
     <param name="modes_for_item_family_2">COMMAND</param>
      -->
 
+    <!-- Optional.
+         Define resource limits specific for the family of items
+         defined by the "item_family_<n>" parameter with the same <n>,
+         to be returned in place of the global ones in
+         getAllowedMaxItemFrequency(), getAllowedBufferSize(),
+         getMinSourceFrequency() and getDistinctSnapshotLength(). -->
+    <!--
+    <param name="max_frequency_for_item_family_1">1</param>
+    <param name="buffer_size_for_item_family_1">5</param>
+    <param name="prefilter_frequency_for_item_family_1">10</param>
+    <param name="distinct_snapshot_length_for_item_family_1">20</param>
+     -->
+
+    <!-- Optional.
+         Define the maximum number of items whose family, as determined
+         by the above rules, is remembered, to save the pattern matching
+         on subsequent requests, and the policy (LRU or FIFO) used to
+         forget items when the limit is reached.
+         By default, up to 10000 items are remembered if any
+         family-specific resource limit is defined, and nothing is
+         remembered otherwise. -->
+    <!--
+    <param name="family_cache_size">100000</param>
+    <param name="family_cache_policy">LRU</param>
+     -->
+
 </metadata_provider>
  * }
  * </PRE>
@@ -153,7 +349,17 @@ import com.lightstreamer.interfaces.metadata.SchemaException;
  */
 public class LiteralBasedProvider extends MetadataProviderAdapter {
 
-    private String[] allowedUsers;
+    private static final Logger logger = Logger.getLogger(LiteralBasedProvider.class.getName());
+
+    // the current set of allowed users, replaced as a whole upon changes
+    private volatile Set<String> allowedUsers;
+
+    private String[] configuredUsers;
+    private File usersFile;
+    private long usersFileModified;
+    private long usersFileLength;
+    private long usersCheckMillis;
+    private ScheduledExecutorService usersChecker;
 
     private double maxBandwidth;
     private double maxFrequency;
@@ -165,6 +371,12 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
         private Pattern pattern;
         private Set allowedModes;
 
+        // resource limits, which default to the global ones
+        private double maxFrequency;
+        private double prefilterFrequency;
+        private int bufferSize;
+        private int distinctSnapshotLength;
+
         private ItemFamily(Pattern pattern, Set modes) {
             allowedModes = modes;
             this.pattern = pattern;
@@ -172,6 +384,36 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
     }
     
     private ItemFamily[] families;
+    private ItemFamilyMatcher familyMatcher;
+    // whether any family has its own resource limits
+    private boolean familyLimits;
+
+    // placeholder to remember items that don't belong to any family
+    private static final ItemFamily NO_FAMILY = new ItemFamily(null, null);
+
+    private BoundedCache<String, ItemFamily> familyCache;
+
+    private BoundedCache<String, String[]> listCache;
+    private NamePool listNames;
+
+    private ItemListExpander expander;
+    private BoundedCache<String, String[]> expandedCache;
+
+    // statistics on the calls from the Kernel, also fed by the subclasses
+    // in this package
+    MetadataMetrics metrics;
+    private String metricsId;
+
+    private AdaptiveLimits adaptive;
+    private long adaptiveIntervalMillis;
+
+    private UserQuotas quotas;
+
+    private File warmStartFile;
+
+    // the state saved in a previous run, until the subclasses in this
+    // package have restored their part
+    WarmStart warmStart;
 
     /**
      * Void constructor required by Lightstreamer Kernel.
@@ -182,29 +424,121 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
     /**
      * Reads configuration settings for user and resource constraints.
      * If some setting is missing, the corresponding constraint is not set.
+     * Background activities, like the checks of the file of User names,
+     * are only started once all the settings have been accepted.
      *
      * @param  params  Can contain the configuration settings. 
-     * @param  dir  Not used.
+     * @param  dir  Directory where the configuration file resides; the
+     * paths of the optional file of User names and of the optional warm
+     * start file are relative to it.
      * @throws MetadataProviderException in case of configuration errors.
      */
     public void init(Map params, File dir) throws MetadataProviderException {
+        configure(params, dir);
+        start();
+    }
+
+    /**
+     * Reads configuration settings and sets internal constants, without
+     * starting anything that would outlive a configuration error.
+     * Subclasses that take further settings should override this method
+     * and invoke it first.
+     *
+     * @param  params  Can contain the configuration settings.
+     * @param  dir  Directory where the configuration file resides.
+     * @throws MetadataProviderException in case of configuration errors.
+     */
+    protected void configure(Map<?, ?> params, File dir) throws MetadataProviderException {
         String currParam = null;
         try {
             currParam = "allowed_users";
             String users = (String) params.get(currParam);
             if (users != null) {
                 if (users.indexOf(",") < 0) {
-                    allowedUsers = new String[1];
-                    allowedUsers[0] = users;
+                    configuredUsers = new String[1];
+                    configuredUsers[0] = users;
                 } else {
                     StringTokenizer tokenizer = new StringTokenizer(users, ",");
-                    allowedUsers = new String[tokenizer.countTokens()];
+                    configuredUsers = new String[tokenizer.countTokens()];
                     for (int i = 0; tokenizer.hasMoreTokens(); i++) {
-                        allowedUsers[i] = tokenizer.nextToken();
+                        configuredUsers[i] = tokenizer.nextToken();
                     }
                 }
+            } else {
+                configuredUsers = null;
+            }
+
+            currParam = "allowed_users_file";
+            String uf = (String) params.get(currParam);
+            if (uf != null) {
+                usersFile = new File(uf);
+                if (! usersFile.isAbsolute()) {
+                    usersFile = new File(getFilesDir(params, dir), uf);
+                }
+                loadUsers();
+
+                currParam = "allowed_users_check_millis";
+                String ucm = (String) params.get(currParam);
+                usersCheckMillis = 5000;
+                if (ucm != null) {
+                    usersCheckMillis = Long.parseLong(ucm);
+                }
+            } else {
+                usersFile = null;
+                if (configuredUsers != null && configuredUsers.length > 0) {
+                    allowedUsers = new HashSet<String>(Arrays.asList(configuredUsers));
+                } else {
+                    allowedUsers = null;
+                }
             }
     
+            currParam = "list_cache_size";
+            String lcs = (String) params.get(currParam);
+            if (lcs != null && Integer.parseInt(lcs) > 0) {
+                int size = Integer.parseInt(lcs);
+                currParam = "list_cache_policy";
+                String policy = (String) params.get(currParam);
+                listCache = new BoundedCache<String, String[]>(size, policy);
+
+                currParam = "list_name_pool_size";
+                String nps = (String) params.get(currParam);
+                if (nps != null) {
+                    listNames = new NamePool(Integer.parseInt(nps));
+                } else {
+                    listNames = new NamePool(size * 10);
+                }
+            } else {
+                listCache = null;
+                listNames = null;
+            }
+
+            currParam = "compact_item_lists";
+            String cil = (String) params.get(currParam);
+            if ((cil != null) && cil.equalsIgnoreCase("Y")) {
+                currParam = "max_item_list_expansion";
+                String mile = (String) params.get(currParam);
+                int maxNames = 10000;
+                if (mile != null) {
+                    maxNames = Integer.parseInt(mile);
+                }
+                expander = new ItemListExpander(maxNames);
+
+                currParam = "compact_list_cache_size";
+                String clcs = (String) params.get(currParam);
+                int size = 100;
+                if (clcs != null) {
+                    size = Integer.parseInt(clcs);
+                }
+                if (size > 0) {
+                    expandedCache = new BoundedCache<String, String[]>(size, BoundedCache.LRU);
+                } else {
+                    expandedCache = null;
+                }
+            } else {
+                expander = null;
+                expandedCache = null;
+            }
+
             currParam = "max_bandwidth";
             String mb = (String) params.get(currParam);
             if (mb != null) {
@@ -270,6 +604,7 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
             if (rules > 0) {
                 final String modesPrefix = "modes_for_item_family_";
                 families = new ItemFamily[rules];
+                familyLimits = false;
                 int rule = 0;
                 for (int currFamily = 1; currFamily <= lastFamily; currFamily++) {
                     currParam = familyPrefix + currFamily;
@@ -288,16 +623,311 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
                             String strMode = tokenizer.nextToken();
                             modes.add(toMode(strMode));
                         }
-                        families[rule] = new ItemFamily(pattern, modes);
+                        ItemFamily family = new ItemFamily(pattern, modes);
+
+                        currParam = "max_frequency_for_item_family_" + currFamily;
+                        String fmf = (String) params.get(currParam);
+                        family.maxFrequency = (fmf != null ? Double.parseDouble(fmf) : maxFrequency);
+
+                        currParam = "prefilter_frequency_for_item_family_" + currFamily;
+                        String fpf = (String) params.get(currParam);
+                        family.prefilterFrequency = (fpf != null ? Double.parseDouble(fpf) : prefilterFrequency);
+
+                        currParam = "buffer_size_for_item_family_" + currFamily;
+                        String fbs = (String) params.get(currParam);
+                        family.bufferSize = (fbs != null ? Integer.parseInt(fbs) : bufferSize);
+
+                        currParam = "distinct_snapshot_length_for_item_family_" + currFamily;
+                        String fdsl = (String) params.get(currParam);
+                        family.distinctSnapshotLength = (fdsl != null ? Integer.parseInt(fdsl) : distinctSnapshotLength);
+
+                        if (fmf != null || fpf != null || fbs != null || fdsl != null) {
+                            familyLimits = true;
+                        }
+
+                        families[rule] = family;
                         rule++;
                     }
                 }
+
+                Pattern[] patterns = new Pattern[families.length];
+                for (int i = 0; i < families.length; i++) {
+                    patterns[i] = families[i].pattern;
+                }
+                familyMatcher = new ItemFamilyMatcher(patterns);
+
+                currParam = "family_cache_size";
+                String fcs = (String) params.get(currParam);
+                int size = 0;
+                if (fcs != null) {
+                    size = Integer.parseInt(fcs);
+                } else if (familyLimits) {
+                    // otherwise each per-Item limit would need a matching
+                    size = 10000;
+                }
+                if (size > 0) {
+                    currParam = "family_cache_policy";
+                    String policy = (String) params.get(currParam);
+                    familyCache = new BoundedCache<String, ItemFamily>(size, policy);
+                } else {
+                    familyCache = null;
+                }
             } else {
                 families = null;
+                familyMatcher = null;
+                familyLimits = false;
+                familyCache = null;
+            }
+
+            currParam = "adaptive_limits";
+            String al = (String) params.get(currParam);
+            if ((al != null) && al.equalsIgnoreCase("Y")) {
+                currParam = "adaptive_target_request_rate";
+                String atrr = (String) params.get(currParam);
+                double targetRate = (atrr != null ? Double.parseDouble(atrr) : 0);
+
+                currParam = "adaptive_target_subscriptions";
+                String ats = (String) params.get(currParam);
+                long targetSubscriptions = (ats != null ? Long.parseLong(ats) : 0);
+
+                currParam = "adaptive_min_factor";
+                String amf = (String) params.get(currParam);
+                double minFactor = (amf != null ? Double.parseDouble(amf) : 0.1);
+
+                currParam = "adaptive_smoothing";
+                String as = (String) params.get(currParam);
+                double smoothing = (as != null ? Double.parseDouble(as) : 0.3);
+
+                currParam = "adaptive_interval_millis";
+                String aim = (String) params.get(currParam);
+                adaptiveIntervalMillis = (aim != null ? Long.parseLong(aim) : 5000);
+                if (adaptiveIntervalMillis <= 0) {
+                    throw new Exception("non positive interval: " + adaptiveIntervalMillis);
+                }
+
+                currParam = "adaptive_limits";
+                adaptive = new AdaptiveLimits(targetRate, targetSubscriptions, minFactor, smoothing);
+            } else {
+                adaptive = null;
+            }
+
+            currParam = "max_items_per_user";
+            String mipu = (String) params.get(currParam);
+            int maxItems = (mipu != null ? Integer.parseInt(mipu) : 0);
+
+            currParam = "max_subscriptions_per_user";
+            String mspu = (String) params.get(currParam);
+            int maxSubscriptions = (mspu != null ? Integer.parseInt(mspu) : 0);
+
+            if (maxItems != 0 || maxSubscriptions != 0) {
+                quotas = new UserQuotas(maxItems, maxSubscriptions);
+            } else {
+                quotas = null;
+            }
+
+            currParam = "warm_start_file";
+            String wsf = (String) params.get(currParam);
+            if (wsf != null) {
+                warmStartFile = new File(wsf);
+                if (! warmStartFile.isAbsolute()) {
+                    warmStartFile = new File(getFilesDir(params, dir), wsf);
+                }
+            } else {
+                warmStartFile = null;
             }
         } catch (Exception e) {
             throw new MetadataProviderException("error reading parameter " + currParam + ": " + e);
         }
+
+        String m = (String) params.get("metrics");
+        if ((m == null) || ! m.equalsIgnoreCase("N")) {
+            metrics = new MetadataMetrics();
+            metricsId = (String) params.get("adapters_conf.id");
+            if (metricsId == null) {
+                metricsId = Integer.toHexString(System.identityHashCode(this));
+            }
+        } else {
+            metrics = null;
+        }
+
+        if (warmStartFile != null) {
+            restoreState();
+        }
+    }
+
+    /**
+     * Starts the background activities, like the checks of the file of
+     * User names and the evaluation of the load for adaptive limits,
+     * once all the settings have been accepted. Subclasses that need
+     * further activities should override this method and invoke it first.
+     */
+    protected void start() {
+        if (usersFile != null && usersCheckMillis > 0) {
+            usersChecker = Executors.newSingleThreadScheduledExecutor(
+                    new DaemonThreadFactory("Allowed users checker"));
+            usersChecker.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    checkUsersFile();
+                }
+            }, usersCheckMillis, usersCheckMillis, TimeUnit.MILLISECONDS);
+        }
+
+        if (adaptive != null) {
+            adaptive.start(adaptiveIntervalMillis);
+        }
+
+        if (metrics != null) {
+            final MetadataMetrics currMetrics = metrics;
+            currMetrics.register(getClass().getSimpleName(), metricsId);
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    currMetrics.unregister();
+                }
+            }, "Statistics unregisterer"));
+        }
+
+        if (warmStartFile != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    writeState();
+                }
+            }, "Warm start writer"));
+        }
+    }
+
+    /**
+     * Stops checking the file of User names, if checked, so that the
+     * current list is kept from then on.
+     */
+    void stopUsersChecker() {
+        ScheduledExecutorService checker = usersChecker;
+        if (checker == null) {
+            return;
+        }
+        usersChecker = null;
+        checker.shutdownNow();
+    }
+
+    /**
+     * Determines the directory which the path of the optional file
+     * of User names is relative to.
+     */
+    protected File getFilesDir(Map<?, ?> params, File dir) {
+        return dir;
+    }
+
+    private String[] getPatterns() {
+        String[] patterns = new String[families.length];
+        for (int i = 0; i < families.length; i++) {
+            patterns[i] = families[i].pattern.pattern();
+        }
+        return patterns;
+    }
+
+    private void restoreState() {
+        if (! warmStartFile.exists()) {
+            logger.info("No warm start file " + warmStartFile + " found, starting cold");
+            return;
+        }
+        try {
+            warmStart = WarmStart.read(warmStartFile);
+        } catch (Exception e) {
+            logger.warning("Error reading warm start file " + warmStartFile + ", starting cold: " + e);
+            return;
+        }
+        if (familyCache != null && warmStart.patterns != null) {
+            if (Arrays.equals(warmStart.patterns, getPatterns())) {
+                int count = 0;
+                for (Map.Entry<String, Integer> saved : warmStart.families.entrySet()) {
+                    int index = saved.getValue().intValue();
+                    if (index < families.length) {
+                        familyCache.put(saved.getKey(), (index < 0 ? NO_FAMILY : families[index]));
+                        count++;
+                    }
+                }
+                logger.info("Restored the families of " + count + " items from " + warmStartFile);
+            } else {
+                logger.info("Item families changed, ignoring the ones in " + warmStartFile);
+            }
+        }
+        warmStart.families = null;
+    }
+
+    /**
+     * Saves the contents of the caches, to be restored upon the next startup.
+     * As the warm start format is internal, only the subclasses in this
+     * package can save and restore further caches, by overriding this method
+     * and also invoking it; they can find the restored state in the
+     * warmStart field after the configuration.
+     */
+    void saveState(WarmStart state) {
+        if (familyCache == null) {
+            return;
+        }
+        state.patterns = getPatterns();
+        for (Map.Entry<String, ItemFamily> cached : familyCache.toMap().entrySet()) {
+            if (WarmStart.isSavable(cached.getKey())) {
+                int index = -1;
+                for (int i = 0; i < families.length; i++) {
+                    if (families[i] == cached.getValue()) {
+                        index = i;
+                        break;
+                    }
+                }
+                state.families.put(cached.getKey(), Integer.valueOf(index));
+            }
+        }
+    }
+
+    private void writeState() {
+        WarmStart state = new WarmStart();
+        try {
+            saveState(state);
+            state.write(warmStartFile);
+            logger.info("Saved warm start file " + warmStartFile);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Error saving warm start file " + warmStartFile, e);
+        }
+    }
+
+    private synchronized void loadUsers() throws IOException {
+        long modified = usersFile.lastModified();
+        long length = usersFile.length();
+        String[] list = NameFileReader.read(usersFile);
+
+        setAllowedUsers(list);
+        usersFileModified = modified;
+        usersFileLength = length;
+    }
+
+    /**
+     * Replaces the allowed User names with the supplied ones, plus the ones
+     * in the "allowed_users" parameter. Also used by subclasses that take
+     * the User names from other sources.
+     */
+    protected void setAllowedUsers(String[] list) {
+        Set<String> users = new HashSet<String>(Arrays.asList(list));
+        if (configuredUsers != null) {
+            users.addAll(Arrays.asList(configuredUsers));
+        }
+        allowedUsers = users;
+    }
+
+    private synchronized void checkUsersFile() {
+        if (usersFile.lastModified() == usersFileModified && usersFile.length() == usersFileLength) {
+            return;
+        }
+        try {
+            loadUsers();
+            logger.info("Reloaded " + usersFile + ": " + allowedUsers.size() + " allowed users");
+        } catch (IOException e) {
+            // the current list is kept until the file changes again
+            usersFileModified = usersFile.lastModified();
+            usersFileLength = usersFile.length();
+            logger.warning("Error reloading " + usersFile + ": " + e);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error reloading " + usersFile, e);
+        }
     }
 
     private Mode toMode(String strMode) throws Exception {
@@ -315,31 +945,102 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
     }
 
     private String[] tokenize(String str) {
-        StringTokenizer source = new StringTokenizer(str, " ");
-        int dim = source.countTokens();
-        String[] ret = new String[dim];
+        if (listCache == null) {
+            return split(str);
+        }
+        String[] found = listCache.get(str);
+        if (found != null) {
+            // the array is shared and it is not expected to be modified
+            return found;
+        }
+        String[] list = split(str);
+        listNames.internAll(list);
+        found = listCache.putIfAbsent(str, list);
+        if (found != null) {
+            return found;
+        }
+        return list;
+    }
+
+    private String[] split(String str) {
+        // equivalent to a StringTokenizer on " ", without the overhead;
+        // the names are counted first, to allocate the exact array
+        int len = str.length();
+        int dim = 0;
+        boolean inName = false;
+        for (int i = 0; i < len; i++) {
+            if (str.charAt(i) == ' ') {
+                inName = false;
+            } else if (! inName) {
+                inName = true;
+                dim++;
+            }
+        }
 
+        String[] ret = new String[dim];
+        int pos = 0;
         for (int i = 0; i < dim; i++) {
-            ret[i] = source.nextToken();
+            while (str.charAt(pos) == ' ') {
+                pos++;
+            }
+            int start = pos;
+            while (pos < len && str.charAt(pos) != ' ') {
+                pos++;
+            }
+            ret[i] = str.substring(start, pos);
         }
         return ret;
     }
 
+    private String[] expand(String itemList) throws ItemsException {
+        if (expandedCache != null) {
+            String[] found = expandedCache.get(itemList);
+            if (found != null) {
+                // the array is shared and it is not expected to be modified
+                return found;
+            }
+        }
+        String[] list;
+        try {
+            list = expander.expand(split(itemList));
+        } catch (IllegalArgumentException e) {
+            throw new ItemsException(e.getMessage());
+        }
+        if (expandedCache != null) {
+            expandedCache.put(itemList, list);
+        }
+        return list;
+    }
+
     /**
      * Resolves an Item List specification supplied in a Request. The names of the Items
      * in the List are returned.
      * <BR>The operation is deferred to a simpler 2-arguments version of the
      * method, where the sessionID argument is discarded. This also ensures
      * backward compatibility with old adapter classes derived from this one.
+     * When metrics are enabled, the time spent is also recorded here, hence
+     * derived classes should override the simpler version only.
      *
      * @param user A User name.
      * @param sessionID A Session ID. Not used.
      * @param itemList An Item List specification.
      * @return An array with the names of the Items in the List.
-     * @throws ItemsException never thrown
+     * @throws ItemsException if the compact syntax is enabled and the
+     * specification is not valid.
      */
     public String[] getItems(String user, String sessionID, String itemList) throws ItemsException {
-        return getItems(user, itemList);
+        if (metrics == null) {
+            return getItems(user, itemList);
+        }
+        long start = System.nanoTime();
+        boolean done = false;
+        try {
+            String[] items = getItems(user, itemList);
+            done = true;
+            return items;
+        } finally {
+            metrics.getItems.record(start, done);
+        }
     }
 
     /**
@@ -347,13 +1048,19 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
      * in the List are returned.
      * Item List specifications are expected to be formed by simply concatenating the names
      * of the contained Items, in a space separated way.
+     * If the compact syntax is enabled, the names may also contain ranges
+     * and sets, to be expanded.
      *
      * @param user A User name. Not used.
      * @param itemList An Item List specification.
      * @return An array with the names of the Items in the List.
-     * @throws ItemsException never thrown.
+     * @throws ItemsException if the compact syntax is enabled and the
+     * specification is not valid or expands to too many names.
      */
     public String[] getItems(String user, String itemList) throws ItemsException {
+        if (expander != null && ItemListExpander.isCompact(itemList)) {
+            return expand(itemList);
+        }
         return tokenize(itemList);
     }
 
@@ -363,6 +1070,8 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
      * <BR>The operation is deferred to a simpler 3-arguments version of the
      * method, where the sessionID argument is discarded. This also ensures
      * backward compatibility with old adapter classes derived from this one.
+     * When metrics are enabled, the time spent is also recorded here, hence
+     * derived classes should override the simpler version only.
      *
      * @param user A User name.
      * @param sessionID A Session ID. Not used.
@@ -374,7 +1083,18 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
      */
     public String[] getSchema(String user, String sessionID, String itemList, String fieldList)
             throws SchemaException {
-        return getSchema(user, itemList, fieldList);
+        if (metrics == null) {
+            return getSchema(user, itemList, fieldList);
+        }
+        long start = System.nanoTime();
+        boolean done = false;
+        try {
+            String[] fields = getSchema(user, itemList, fieldList);
+            done = true;
+            return fields;
+        } finally {
+            metrics.getSchema.record(start, done);
+        }
     }
 
     /**
@@ -396,21 +1116,14 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
     }
 
     private boolean checkUser(String user) {
-        if ((allowedUsers == null) || (allowedUsers.length == 0)) {
+        Set<String> users = allowedUsers;
+        if (users == null) {
             return true;
         }
         if (user == null) {
             return false;
         }
-        for (int i = 0; i < allowedUsers.length; i++) {
-            if (allowedUsers[i] == null) {
-                continue;
-            }
-            if (allowedUsers[i].equals(user)) {
-                return true;
-            }
-        }
-        return false;
+        return users.contains(user);
     }
 
     /**
@@ -432,7 +1145,18 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
      */
     public void notifyUser(String user, String password, Map httpHeaders)
             throws AccessException, CreditsException {
-    	notifyUser(user, password);
+        if (metrics == null) {
+            notifyUser(user, password);
+            return;
+        }
+        long start = System.nanoTime();
+        boolean done = false;
+        try {
+            notifyUser(user, password);
+            done = true;
+        } finally {
+            metrics.notifyUser.record(start, done);
+        }
     }
 
     /**
@@ -470,12 +1194,18 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
      * Item.
      *
      * @param user A User name. Not used.
-     * @param item An Item Name. Not used.
+     * @param item An Item Name.
      * @return The allowed Update frequency, in Updates/sec, as supplied
-     * in the Metadata Adapter configuration.
+     * in the Metadata Adapter configuration for the family of the Item,
+     * or globally, possibly reduced if adaptive limits are configured.
      */
     public double getAllowedMaxItemFrequency(String user, String item) {
-        return maxFrequency;
+        ItemFamily family = getLimitsFamily(item);
+        double frequency = (family == null ? maxFrequency : family.maxFrequency);
+        if (adaptive != null) {
+            return adaptive.apply(frequency);
+        }
+        return frequency;
     }
 
     /**
@@ -483,12 +1213,16 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
      * ItemUpdates for the same Item.
      *
      * @param user A User name. Not used.
-     * @param item An Item Name. Not used.
+     * @param item An Item Name.
      * @return The allowed buffer size, as supplied in the Metadata Adapter
-     * configuration.
+     * configuration for the family of the Item, or globally.
      */
     public int getAllowedBufferSize(String user, String item) {
-        return bufferSize;
+        ItemFamily family = getLimitsFamily(item);
+        if (family == null) {
+            return bufferSize;
+        }
+        return family.bufferSize;
     }
 
     /**
@@ -499,11 +1233,19 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
      * frequency, Lightstreamer Kernel may prefilter the events flow down to
      * this frequency.
      * 
+     * @param item An Item Name.
      * @return The maximum frequency to be allowed by the prefilter,
-     * as supplied in the Metadata Adapter configuration.
+     * as supplied in the Metadata Adapter configuration for the family
+     * of the Item, or globally, possibly reduced if adaptive limits are
+     * configured.
      */
     public double getMinSourceFrequency(String item) {
-        return prefilterFrequency;
+        ItemFamily family = getLimitsFamily(item);
+        double frequency = (family == null ? prefilterFrequency : family.prefilterFrequency);
+        if (adaptive != null) {
+            return adaptive.apply(frequency);
+        }
+        return frequency;
     }
 
     /**
@@ -512,12 +1254,122 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
      *
      * @param item An Item Name.
      * @return The maximum allowed length for the Snapshot, as supplied
-     * in the Metadata Adapter configuration. In case no value has been
+     * in the Metadata Adapter configuration for the family of the Item,
+     * or globally. In case no value has been
      * supplied, a default value of 10 events is returned, which is thought
      * to be enough to satisfy typical Client requests.
      */
     public int getDistinctSnapshotLength(String item) {
-        return distinctSnapshotLength;
+        ItemFamily family = getLimitsFamily(item);
+        if (family == null) {
+            return distinctSnapshotLength;
+        }
+        return family.distinctSnapshotLength;
+    }
+
+    /**
+     * Called by Lightstreamer Kernel to check that a User is enabled to open
+     * a new Session. Here it only accounts for the request, if adaptive
+     * limits are configured; subclasses that override this method should
+     * also invoke it.
+     *
+     * @param user A User name.
+     * @param sessionID The ID of a new Session.
+     * @param clientContext A Map with the context of the Session. Not used.
+     * @throws CreditsException never thrown.
+     * @throws NotificationException never thrown.
+     */
+    @SuppressWarnings("rawtypes")
+    public void notifyNewSession(String user, String sessionID, Map clientContext)
+            throws CreditsException, NotificationException {
+        if (adaptive != null) {
+            adaptive.called();
+        }
+    }
+
+    /**
+     * Called by Lightstreamer Kernel to notify the Metadata Adapter that
+     * a Session has been closed. Here it only gives back anything still
+     * held by the Session, if per-User quotas are configured; subclasses
+     * that override this method should also invoke it.
+     *
+     * @param sessionID The ID of a Session.
+     * @throws NotificationException never thrown.
+     */
+    public void notifySessionClose(String sessionID) throws NotificationException {
+        if (quotas != null) {
+            quotas.close(sessionID);
+        }
+    }
+
+    /**
+     * Called by Lightstreamer Kernel to know whether the Metadata Adapter
+     * must or must not be notified any time a Table (i.e. Subscription)
+     * is added or removed from a Session owned by a supplied User.
+     *
+     * @param user A User name.
+     * @return true if adaptive limits or per-User quotas are configured,
+     * as they need to track the subscriptions.
+     */
+    public boolean wantsTablesNotification(String user) {
+        return (adaptive != null || quotas != null);
+    }
+
+    /**
+     * Called by Lightstreamer Kernel to check that a User is enabled to add
+     * some Tables (i.e. Subscriptions) to a Session. Here the new Items
+     * and Subscriptions are checked against the per-User quotas and
+     * accounted for, if quotas or adaptive limits are configured.
+     *
+     * @param user A User name.
+     * @param sessionID The ID of a Session owned by the User.
+     * @param tables An array of TableInfo instances, each of them containing
+     * the details of a Table to be added to the Session.
+     * @throws CreditsException if the User would exceed a quota.
+     * @throws NotificationException never thrown.
+     */
+    public void notifyNewTables(String user, String sessionID, TableInfo[] tables)
+            throws CreditsException, NotificationException {
+        if (adaptive != null) {
+            adaptive.called();
+        }
+        int items = countItems(tables);
+        if (quotas != null) {
+            quotas.acquire(user, sessionID, items, tables.length);
+        }
+        if (adaptive != null) {
+            adaptive.subscribed(items);
+        }
+    }
+
+    /**
+     * Called by Lightstreamer Kernel to notify the Metadata Adapter that
+     * some Tables have been removed from a Session. Here it only accounts
+     * for the unsubscribed Items and Subscriptions, if quotas or adaptive
+     * limits are configured.
+     *
+     * @param sessionID The ID of a Session.
+     * @param tables An array of TableInfo instances, each of them containing
+     * the details of a Table that has been removed from the Session.
+     * @throws NotificationException never thrown.
+     */
+    public void notifyTablesClose(String sessionID, TableInfo[] tables)
+            throws NotificationException {
+        int items = countItems(tables);
+        if (quotas != null) {
+            quotas.release(sessionID, items, tables.length);
+        }
+        if (adaptive != null) {
+            adaptive.subscribed(- items);
+        }
+    }
+
+    private static int countItems(TableInfo[] tables) {
+        int count = 0;
+        for (int i = 0; i < tables.length; i++) {
+            count += tables[i].getMax() - tables[i].getMin() + 1;
+        }
+        return count;
     }
 
     /**
@@ -538,16 +1390,60 @@ public class LiteralBasedProvider extends MetadataProviderAdapter {
      * ensure that the same Item cannot be requested in two conflicting Modes.
      */
     public boolean modeMayBeAllowed(String item, Mode mode) {
+        if (metrics == null) {
+            return checkMode(item, mode);
+        }
+        long start = System.nanoTime();
+        boolean done = false;
+        try {
+            boolean allowed = checkMode(item, mode);
+            done = true;
+            return allowed;
+        } finally {
+            metrics.modeMayBeAllowed.record(start, done);
+        }
+    }
+
+    private boolean checkMode(String item, Mode mode) {
         if (families == null) {
             return true;
         }
-        for (int i = 0; i < families.length; i++) {
-            Matcher matcher = families[i].pattern.matcher(item);
-            if (matcher.matches()) {
-                return families[i].allowedModes.contains(mode);
-            }
+        ItemFamily family = getFamily(item);
+        if (family == NO_FAMILY) {
+            return false;
+        }
+        return family.allowedModes.contains(mode);
+    }
+
+    private ItemFamily getLimitsFamily(String item) {
+        if (! familyLimits || item == null) {
+            return null;
+        }
+        ItemFamily family = getFamily(item);
+        if (family == NO_FAMILY) {
+            return null;
+        }
+        return family;
+    }
+
+    private ItemFamily getFamily(String item) {
+        if (familyCache == null) {
+            return matchFamily(item);
+        }
+        ItemFamily family = familyCache.get(item);
+        if (family == null) {
+            family = matchFamily(item);
+            familyCache.put(item, family);
+        }
+        return family;
+    }
+
+    private ItemFamily matchFamily(String item) {
+        int found = familyMatcher.match(item);
+        if (found < 0) {
+            return NO_FAMILY;
         }
-        return false;
+        return families[found];
     }
 
 }
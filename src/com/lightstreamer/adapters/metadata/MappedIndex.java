@@ -0,0 +1,235 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * Read-only view of an index file built by {@link IndexCompiler}. <BR>
+ * The file is memory-mapped, hence the lists of names live outside the
+ * Java heap and are decoded upon request; only the directory of the
+ * Item Group and Field Schema names is kept on the heap, together with
+ * the lists decoded most recently, whose names are shared through a
+ * pool. <BR>
+ * The file layout, with all numbers as big-endian 32-bit integers, is:
+ * <UL>
+ * <LI>the magic number and the format version;</LI>
+ * <LI>the string table: the number of strings, the offsets of the
+ * strings in the string data (plus a final offset, which marks the end of
+ * the data), the size of the string data and the string data, where each
+ * string is encoded in UTF-8;</LI>
+ * <LI>the Item Group section and the Field Schema section, each one made
+ * of the number of entries, the entries, as pairs formed by the index of
+ * the entry name in the string table and the offset of the entry list in
+ * the list data, the size of the list data and the list data, where each
+ * list is made of the number of names and the indexes of the names in the
+ * string table.</LI>
+ * </UL>
+ */
+class MappedIndex {
+
+    static final int MAGIC = 0x4C534D49;  // "LSMI"
+    static final int VERSION = 1;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final ByteBuffer buffer;
+
+    private final int stringCount;
+    private final int stringOffsetsPos;
+    private final int stringDataPos;
+
+    // from entry names to the absolute position of their lists
+    private final HashMap<String, Integer> groups;
+    private final HashMap<String, Integer> schemas;
+
+    private final NamePool names;
+    // the decoded lists, by absolute position
+    private final BoundedCache<Integer, String[]> lists;
+
+    /**
+     * Maps an index file.
+     *
+     * @param file the index file.
+     * @param names the pool that holds the shared instances of the names.
+     * @param cacheSize the maximum number of decoded lists kept,
+     * or 0 to decode the lists upon each request.
+     * @throws IOException if the file cannot be read or it is not a
+     * valid index file.
+     */
+    MappedIndex(File file, NamePool names, int cacheSize) throws IOException {
+        this.file = file;
+        this.names = names;
+        if (cacheSize > 0) {
+            lists = new BoundedCache<Integer, String[]>(cacheSize, BoundedCache.LRU);
+        } else {
+            lists = null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer = mapped;
+        } finally {
+            // the mapping remains valid after closing the file
+            raf.close();
+        }
+
+        try {
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("not an index file: " + file);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("unsupported index file version " + buffer.getInt(4) + ": " + file);
+            }
+            stringCount = buffer.getInt(8);
+            checkCount(stringCount, 12, 4);
+            stringOffsetsPos = 12;
+            int stringDataSizePos = stringOffsetsPos + 4 * (stringCount + 1);
+            stringDataPos = stringDataSizePos + 4;
+            int pos = stringDataPos + buffer.getInt(stringDataSizePos);
+
+            groups = new HashMap<String, Integer>();
+            pos = readSection(pos, groups);
+            schemas = new HashMap<String, Integer>();
+            int end = readSection(pos, schemas);
+            // otherwise a truncated list would only be noticed upon request
+            if (end != buffer.limit()) {
+                throw new IOException("bad size of index file " + file + ": " + buffer.limit()
+                        + " bytes instead of " + end);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("truncated index file: " + file);
+        }
+    }
+
+    /**
+     * Checks that a number of items of a given size can be found at a
+     * position, to avoid huge or negative allocations and overflows
+     * because of corrupted counts.
+     */
+    private void checkCount(int count, int pos, int size) {
+        if (count < 0 || pos + (long) count * size > buffer.limit()) {
+            throw new IndexOutOfBoundsException("bad count " + count + " at " + pos);
+        }
+    }
+
+    private int readSection(int pos, HashMap<String, Integer> directory) {
+        int count = buffer.getInt(pos);
+        checkCount(count, pos + 4, 8);
+        int entriesPos = pos + 4;
+        int listDataSizePos = entriesPos + 8 * count;
+        int listDataPos = listDataSizePos + 4;
+        for (int i = 0; i < count; i++) {
+            String name = getString(buffer.getInt(entriesPos + 8 * i));
+            int listPos = listDataPos + buffer.getInt(entriesPos + 8 * i + 4);
+            directory.put(name, Integer.valueOf(listPos));
+        }
+        return listDataPos + buffer.getInt(listDataSizePos);
+    }
+
+    private String getString(int index) {
+        if (index < 0 || index >= stringCount) {
+            throw new IndexOutOfBoundsException("bad string index " + index);
+        }
+        int start = buffer.getInt(stringOffsetsPos + 4 * index);
+        int end = buffer.getInt(stringOffsetsPos + 4 * (index + 1));
+        if (start < 0 || end < start) {
+            throw new IndexOutOfBoundsException("bad string offsets " + start + " and " + end);
+        }
+        checkCount(end - start, stringDataPos + start, 1);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringDataPos + start);
+        view.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private String[] getList(Integer listPos) throws IOException {
+        if (listPos == null) {
+            return null;
+        }
+        if (lists != null) {
+            String[] found = lists.get(listPos);
+            if (found != null) {
+                // the array is shared and it is not expected to be modified
+                return found;
+            }
+        }
+        String[] list;
+        try {
+            int pos = listPos.intValue();
+            int count = buffer.getInt(pos);
+            checkCount(count, pos + 4, 4);
+            list = new String[count];
+            for (int i = 0; i < count; i++) {
+                list[i] = names.intern(getString(buffer.getInt(pos + 4 + 4 * i)));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupted index file: " + file + ": " + e.getMessage());
+        }
+        if (lists != null) {
+            lists.put(listPos, list);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the names of the Items in an Item Group, or null if the
+     * Item Group is not in the index.
+     *
+     * @throws IOException if the index file is corrupted.
+     */
+    String[] getItems(String group) throws IOException {
+        return getList(groups.get(group));
+    }
+
+    /**
+     * Returns the names of the Fields in a Field Schema, or null if the
+     * Field Schema is not in the index.
+     *
+     * @throws IOException if the index file is corrupted.
+     */
+    String[] getSchema(String schema) throws IOException {
+        return getList(schemas.get(schema));
+    }
+
+    /**
+     * Returns the number of Item Groups in the index.
+     */
+    int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * Returns the number of Field Schemas in the index.
+     */
+    int getSchemaCount() {
+        return schemas.size();
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Collects the statistics of a Metadata Adapter and publishes them as an
+ * MBean. <BR>
+ * For each instrumented method, the MBean exposes the attributes
+ * &lt;method&gt;Calls, &lt;method&gt;Errors, &lt;method&gt;Rate (current calls
+ * per second, see LatencyHistogram.getRate), &lt;method&gt;P50Micros,
+ * &lt;method&gt;P99Micros and &lt;method&gt;MaxMicros. For FileBasedProvider,
+ * the file read durations are exposed as well, as FileLoad, together with
+ * the Cache* attributes of the file cache, only for the modes that keep
+ * the files in it; in the other modes, the hits of the preloaded files
+ * and of the index would go uncounted, hence no counts are exposed.
+ * The resetStatistics operation restarts all the recordings.
+ */
+class MetadataMetrics implements DynamicMBean {
+
+    private static final Logger logger = Logger.getLogger(MetadataMetrics.class.getName());
+
+    final LatencyHistogram notifyUser = new LatencyHistogram();
+    final LatencyHistogram getItems = new LatencyHistogram();
+    final LatencyHistogram getSchema = new LatencyHistogram();
+    final LatencyHistogram modeMayBeAllowed = new LatencyHistogram();
+    final LatencyHistogram fileLoad = new LatencyHistogram();
+
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<String, LatencyHistogram>();
+
+    private volatile FileCache cache;
+    private volatile ObjectName objectName;
+
+    /**
+     * Creates the statistics.
+     */
+    MetadataMetrics() {
+        histograms.put("NotifyUser", notifyUser);
+        histograms.put("GetItems", getItems);
+        histograms.put("GetSchema", getSchema);
+        histograms.put("ModeMayBeAllowed", modeMayBeAllowed);
+    }
+
+    /**
+     * Adds the statistics of the file reads and, if the files are kept
+     * in a file cache, of the cache; must be invoked before registering.
+     *
+     * @param cache the file cache, or null.
+     */
+    void addFiles(FileCache cache) {
+        histograms.put("FileLoad", fileLoad);
+        this.cache = cache;
+    }
+
+    /**
+     * Registers the MBean in the platform MBean server; failures are only logged.
+     *
+     * @param type the name of the adapter class.
+     * @param name a name that distinguishes the adapter instance.
+     */
+    void register(String type, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName currName = new ObjectName("com.lightstreamer.adapters.metadata:type="
+                    + ObjectName.quote(type) + ",name=" + ObjectName.quote(name));
+            server.registerMBean(this, currName);
+            objectName = currName;
+            logger.info("Statistics available as " + currName);
+        } catch (Exception e) {
+            logger.warning("Cannot register the statistics MBean for " + type + " " + name + ": " + e);
+        }
+    }
+
+    /**
+     * Removes the MBean from the platform MBean server, if it was registered;
+     * failures are only logged.
+     */
+    void unregister() {
+        ObjectName currName = objectName;
+        if (currName == null) {
+            return;
+        }
+        objectName = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(currName);
+        } catch (Exception e) {
+            logger.warning("Cannot unregister the statistics MBean " + currName + ": " + e);
+        }
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            String prefix = entry.getKey();
+            if (! attribute.startsWith(prefix)) {
+                continue;
+            }
+            LatencyHistogram histogram = entry.getValue();
+            String stat = attribute.substring(prefix.length());
+            if (stat.equals("Calls")) {
+                return Long.valueOf(histogram.getCount());
+            } else if (stat.equals("Errors")) {
+                return Long.valueOf(histogram.getErrors());
+            } else if (stat.equals("Rate")) {
+                return Double.valueOf(histogram.getRate());
+            } else if (stat.equals("P50Micros")) {
+                return Double.valueOf(histogram.getPercentileMicros(50));
+            } else if (stat.equals("P99Micros")) {
+                return Double.valueOf(histogram.getPercentileMicros(99));
+            } else if (stat.equals("MaxMicros")) {
+                return Double.valueOf(histogram.getMaxMicros());
+            }
+        }
+        FileCache currCache = cache;
+        if (currCache == null) {
+            // no counts would be meaningful
+        } else if (attribute.equals("CacheHits")) {
+            return Long.valueOf(currCache.getHits());
+        } else if (attribute.equals("CacheMisses")) {
+            return Long.valueOf(currCache.getMisses());
+        } else if (attribute.equals("CacheEvictions")) {
+            return Long.valueOf(currCache.getEvictions());
+        } else if (attribute.equals("CacheEntries")) {
+            return Long.valueOf(currCache.getEntries());
+        } else if (attribute.equals("CacheBytes")) {
+            return Long.valueOf(currCache.getBytes());
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (int i = 0; i < attributes.length; i++) {
+            try {
+                list.add(new Attribute(attributes[i], getAttribute(attributes[i])));
+            } catch (AttributeNotFoundException e) {
+                // skipped, as required
+            }
+        }
+        return list;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("read-only attribute " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("resetStatistics")) {
+            for (LatencyHistogram histogram : histograms.values()) {
+                histogram.reset();
+            }
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (String prefix : histograms.keySet()) {
+            attributes.add(attributeInfo(prefix + "Calls", "long", "Number of calls"));
+            attributes.add(attributeInfo(prefix + "Errors", "long", "Number of calls ended with an exception"));
+            attributes.add(attributeInfo(prefix + "Rate", "double", "Current calls per second"));
+            attributes.add(attributeInfo(prefix + "P50Micros", "double", "Median call duration, in microseconds"));
+            attributes.add(attributeInfo(prefix + "P99Micros", "double", "99th percentile of call duration, in microseconds"));
+            attributes.add(attributeInfo(prefix + "MaxMicros", "double", "Maximum call duration, in microseconds"));
+        }
+        if (cache != null) {
+            attributes.add(attributeInfo("CacheHits", "long", "Requests served from the file cache"));
+            attributes.add(attributeInfo("CacheMisses", "long", "Requests that needed a file read"));
+            attributes.add(attributeInfo("CacheEvictions", "long", "Files discarded because of the cache limits"));
+            attributes.add(attributeInfo("CacheEntries", "long", "Files in the cache"));
+            attributes.add(attributeInfo("CacheBytes", "long", "Estimated memory occupation of the files in the cache"));
+        }
+
+        MBeanOperationInfo[] operations = new MBeanOperationInfo[] {
+            new MBeanOperationInfo("resetStatistics", "Restarts all the recordings",
+                    new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION)
+        };
+        return new MBeanInfo(getClass().getName(), "Metadata Adapter statistics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, operations, null);
+    }
+
+    private static MBeanAttributeInfo attributeInfo(String name, String type, String description) {
+        return new MBeanAttributeInfo(name, type, description, true, false, false);
+    }
+
+}
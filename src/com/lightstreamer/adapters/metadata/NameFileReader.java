@@ -0,0 +1,205 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads the text files used by the Metadata Adapters to store lists of
+ * names, like Item Groups, Field Schemas and User lists.
+ * The files must list one name per line. Empty lines or lines starting
+ * with a "#" (for comments) are also allowed; optionally, comment lines
+ * made of "#include" followed by a name can be kept as directives. <BR>
+ * The files are encoded in UTF-8 and they are parsed at the byte level,
+ * from a buffer that holds the whole file; the files are not memory-mapped,
+ * as a mapping would keep them open, and not replaceable on some platforms,
+ * until garbage collected. As the line terminators and the blanks trimmed
+ * around the names are all single bytes in UTF-8, lines are delimited and
+ * trimmed before decoding, so that only the names are turned into Strings.
+ */
+class NameFileReader {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Prefix of the directive lines, which can only be told from names
+     * because names cannot start with a "#".
+     */
+    static final String INCLUDE = "#include";
+
+    private static final byte[] INCLUDE_BYTES = INCLUDE.getBytes(UTF8);
+
+    private NameFileReader() {
+    }
+
+    /**
+     * Reads the names listed in a file.
+     *
+     * @param myFile the file.
+     * @return the names, in the order in which they are listed.
+     * @throws IOException if the file does not exists or cannot be read.
+     */
+    static String[] read(File myFile) throws IOException {
+        return read(myFile, false);
+    }
+
+    /**
+     * Reads the names listed in a file, possibly together with the
+     * include directives, which are returned, trimmed, in their position.
+     *
+     * @param myFile the file.
+     * @param includes whether the include directives should be returned.
+     * @return the names, in the order in which they are listed.
+     * @throws IOException if the file does not exists or cannot be read.
+     */
+    static String[] read(File myFile, boolean includes) throws IOException {
+        FileInputStream source = new FileInputStream(myFile);
+        try {
+            long size = source.getChannel().size();
+            if (size >= Integer.MAX_VALUE) {
+                throw new IOException("file too large: " + size + " bytes");
+            }
+            return read(source, (int) size, includes);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Reads the names listed in a stream, up to its end.
+     *
+     * @param source the stream, which is not closed.
+     * @param expected the expected number of bytes, which is only used to
+     * size the buffer, as the file may have changed since its size was taken.
+     * @param includes whether the include directives should be returned.
+     * @return the names, in the order in which they are listed.
+     * @throws IOException if the stream cannot be read.
+     */
+    static String[] read(InputStream source, int expected, boolean includes) throws IOException {
+        return parse(readFully(source, expected), includes);
+    }
+
+    private static ByteBuffer readFully(InputStream source, int expected) throws IOException {
+        byte[] bytes = new byte[expected + 1];
+        int len = 0;
+        while (true) {
+            if (len == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int n = source.read(bytes, len, bytes.length - len);
+            if (n < 0) {
+                break;
+            }
+            len += n;
+        }
+        return ByteBuffer.wrap(bytes, 0, len);
+    }
+
+    private static boolean isBlank(byte b) {
+        // the same characters removed by String.trim
+        return (b & 0xFF) <= ' ';
+    }
+
+    private static int lineEnd(ByteBuffer buf, int pos, int limit) {
+        // CR, LF and CR LF all end a line; blank lines are skipped anyway
+        while (pos < limit) {
+            byte b = buf.get(pos);
+            if (b == '\n' || b == '\r') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int nameStart(ByteBuffer buf, int pos, int end, boolean includes) {
+        while (pos < end && isBlank(buf.get(pos))) {
+            pos++;
+        }
+        if (pos < end && buf.get(pos) == '#') {
+            if (includes && isInclude(buf, pos, end)) {
+                return pos;
+            }
+            // comment
+            return end;
+        }
+        return pos;
+    }
+
+    private static boolean isInclude(ByteBuffer buf, int pos, int end) {
+        int len = INCLUDE_BYTES.length;
+        if (end - pos <= len + 1) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (buf.get(pos + i) != INCLUDE_BYTES[i]) {
+                return false;
+            }
+        }
+        if (! isBlank(buf.get(pos + len))) {
+            return false;
+        }
+        // a name has to follow
+        for (int i = pos + len + 1; i < end; i++) {
+            if (! isBlank(buf.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] parse(ByteBuffer buf, boolean includes) {
+        int limit = buf.limit();
+
+        // the names are counted first, to allocate the exact array
+        int count = 0;
+        for (int pos = 0; pos < limit; ) {
+            int end = lineEnd(buf, pos, limit);
+            if (nameStart(buf, pos, end, includes) < end) {
+                count++;
+            }
+            pos = end + 1;
+        }
+
+        String[] names = new String[count];
+        byte[] bytes = buf.array();
+        int i = 0;
+        for (int pos = 0; pos < limit; ) {
+            int end = lineEnd(buf, pos, limit);
+            int start = nameStart(buf, pos, end, includes);
+            if (start < end) {
+                int stop = end;
+                while (isBlank(buf.get(stop - 1))) {
+                    stop--;
+                }
+                names[i] = new String(bytes, buf.arrayOffset() + start, stop - start, UTF8);
+                i++;
+            }
+            pos = end + 1;
+        }
+        return names;
+    }
+
+}
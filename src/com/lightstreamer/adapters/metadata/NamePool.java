@@ -0,0 +1,61 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+/**
+ * Bounded pool of canonical String instances for Item and Field names,
+ * so that lists kept in memory for a long time can share the same
+ * instances instead of holding several copies of equal names.
+ * Names that are forgotten by the pool are still valid; they just stop
+ * being shared with the names supplied later.
+ */
+class NamePool {
+
+    private final BoundedCache<String, String> names;
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxSize the maximum number of names remembered.
+     */
+    NamePool(int maxSize) {
+        names = new BoundedCache<String, String>(maxSize, BoundedCache.LRU);
+    }
+
+    /**
+     * Returns the canonical instance of a name.
+     */
+    String intern(String name) {
+        String found = names.putIfAbsent(name, name);
+        if (found != null) {
+            return found;
+        }
+        return name;
+    }
+
+    /**
+     * Replaces all the names in an array with their canonical instances.
+     */
+    void internAll(String[] list) {
+        for (int i = 0; i < list.length; i++) {
+            list[i] = intern(list[i]);
+        }
+    }
+
+}
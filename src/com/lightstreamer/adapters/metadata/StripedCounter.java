@@ -0,0 +1,76 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter meant to be updated very frequently by many threads.
+ * The updates are spread over several cells, chosen on a per-thread basis
+ * and kept on different cache lines, so that concurrent updates seldom
+ * contend; the cells are summed only when the value is read.
+ */
+class StripedCounter {
+
+    private static final int STRIPES = 32;
+
+    // cells are 8 longs apart, to avoid sharing cache lines
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int cell() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * Adds 1 to the counter.
+     */
+    void increment() {
+        cells.incrementAndGet(cell());
+    }
+
+    /**
+     * Adds a value to the counter.
+     */
+    void add(long value) {
+        cells.addAndGet(cell(), value);
+    }
+
+    /**
+     * Returns the current value of the counter.
+     */
+    long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Sets the counter to 0; concurrent updates may get lost.
+     */
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+}
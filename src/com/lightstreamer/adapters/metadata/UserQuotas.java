@@ -0,0 +1,242 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lightstreamer.interfaces.metadata.CreditsException;
+
+/**
+ * Accounting of the Items and Subscriptions held by each User, over all
+ * the Sessions of the User, against configured limits. <BR>
+ * The Items and Subscriptions held by a User are packed in a single
+ * counter, so that both limits are checked and both amounts are taken
+ * through one compare-and-set, without locks; Sessions of different
+ * Users never update the same counter. Counters that drop to 0 are
+ * retired when a Session closes, so that Users that are gone don't keep
+ * memory; a retired counter can no longer be updated and it is replaced
+ * by a new one upon the next Subscription. <BR>
+ * The calls for the same Session are serialized by a lock on the Session,
+ * which is only contended if the Server overlaps them, so that a release
+ * that comes late, after the Session has been closed, is ignored rather
+ * than given back twice. <BR>
+ * Sessions without a User name are not accounted for, as they cannot be
+ * told apart; sharing one counter among them would limit all the
+ * anonymous Clients together.
+ */
+class UserQuotas {
+
+    /**
+     * Client error code for Subscriptions refused because the Items
+     * held by the User would exceed the limit.
+     */
+    static final int ITEMS_EXCEEDED = -1;
+
+    /**
+     * Client error code for Subscriptions refused because the
+     * Subscriptions held by the User would exceed the limit.
+     */
+    static final int SUBSCRIPTIONS_EXCEEDED = -2;
+
+    // value of the counters no longer in use
+    private static final long RETIRED = -1;
+
+    private static class Session {
+        private final String user;
+        // the Items and Subscriptions held by the Session, packed as for the User;
+        // guarded by the Session, as the flag
+        private long used;
+        private boolean closed;
+
+        private Session(String user) {
+            this.user = user;
+        }
+    }
+
+    private final long maxItems;
+    private final long maxSubscriptions;
+
+    // Items in the upper 32 bits and Subscriptions in the lower 32 bits, by User
+    private final ConcurrentHashMap<String, AtomicLong> users = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+    /**
+     * Creates the accounting.
+     *
+     * @param maxItems the maximum number of Items per User,
+     * or 0 for no limit.
+     * @param maxSubscriptions the maximum number of Subscriptions per User,
+     * or 0 for no limit.
+     * @throws IllegalArgumentException in case of invalid arguments.
+     */
+    UserQuotas(int maxItems, int maxSubscriptions) {
+        if (maxItems < 0 || maxSubscriptions < 0) {
+            throw new IllegalArgumentException("negative quota");
+        }
+        // the counts have to fit in 31 bits anyway
+        this.maxItems = (maxItems > 0 ? maxItems : Integer.MAX_VALUE);
+        this.maxSubscriptions = (maxSubscriptions > 0 ? maxSubscriptions : Integer.MAX_VALUE);
+    }
+
+    private static long pack(int items, int subscriptions) {
+        return ((long) items << 32) + subscriptions;
+    }
+
+    private static int items(long used) {
+        return (int) (used >>> 32);
+    }
+
+    private static int subscriptions(long used) {
+        return (int) used;
+    }
+
+    private AtomicLong counter(String user) {
+        AtomicLong used = users.get(user);
+        if (used == null) {
+            AtomicLong created = new AtomicLong();
+            used = users.putIfAbsent(user, created);
+            if (used == null) {
+                used = created;
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Takes some Items and Subscriptions on behalf of a Session,
+     * unless the limits of the User would be exceeded.
+     * Nothing is done if the User is null.
+     *
+     * @param user the User that owns the Session, or null.
+     * @param sessionID the ID of the Session.
+     * @param items the number of Items.
+     * @param subscriptions the number of Subscriptions.
+     * @throws CreditsException if a limit would be exceeded;
+     * in this case, nothing is taken.
+     */
+    void acquire(String user, String sessionID, int items, int subscriptions) throws CreditsException {
+        if (user == null) {
+            // then release and close will not find the Session either
+            return;
+        }
+        Session session = sessions.get(sessionID);
+        if (session == null) {
+            Session created = new Session(user);
+            session = sessions.putIfAbsent(sessionID, created);
+            if (session == null) {
+                session = created;
+            }
+        }
+
+        long delta = pack(items, subscriptions);
+        synchronized (session) {
+            if (session.closed) {
+                // the Session was closed meanwhile, hence nothing will be released
+                return;
+            }
+            take(user, delta, items, subscriptions);
+            session.used += delta;
+        }
+    }
+
+    private void take(String user, long delta, int items, int subscriptions) throws CreditsException {
+        while (true) {
+            AtomicLong used = counter(user);
+            long curr = used.get();
+            if (curr == RETIRED) {
+                // help the closing Session to discard it
+                users.remove(user, used);
+                continue;
+            }
+            if (items(curr) + (long) items > maxItems) {
+                throw new CreditsException(ITEMS_EXCEEDED, "User " + user + " would hold "
+                        + (items(curr) + (long) items) + " Items, above the limit of " + maxItems,
+                        "Too many Items");
+            }
+            if (subscriptions(curr) + (long) subscriptions > maxSubscriptions) {
+                throw new CreditsException(SUBSCRIPTIONS_EXCEEDED, "User " + user + " would hold "
+                        + (subscriptions(curr) + (long) subscriptions) + " Subscriptions, above the limit of "
+                        + maxSubscriptions, "Too many Subscriptions");
+            }
+            if (used.compareAndSet(curr, curr + delta)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gives back some Items and Subscriptions taken on behalf of a Session.
+     * Nothing is done if the Session has already been closed.
+     *
+     * @param sessionID the ID of the Session.
+     * @param items the number of Items.
+     * @param subscriptions the number of Subscriptions.
+     */
+    void release(String sessionID, int items, int subscriptions) {
+        Session session = sessions.get(sessionID);
+        if (session == null) {
+            return;
+        }
+        long delta = pack(items, subscriptions);
+        synchronized (session) {
+            if (session.closed) {
+                // already given back by close
+                return;
+            }
+            session.used -= delta;
+            // as the Session holds something, the counter cannot have been
+            // retired, but it is not taken for granted
+            AtomicLong used = users.get(session.user);
+            if (used != null) {
+                used.addAndGet(- delta);
+            }
+        }
+    }
+
+    /**
+     * Gives back all the Items and Subscriptions still held by a Session
+     * and forgets it.
+     *
+     * @param sessionID the ID of the Session.
+     */
+    void close(String sessionID) {
+        Session session = sessions.remove(sessionID);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            session.closed = true;
+            long left = session.used;
+            session.used = 0;
+            AtomicLong used = users.get(session.user);
+            if (used == null) {
+                return;
+            }
+            if (left != 0) {
+                used.addAndGet(- left);
+            }
+            if (used.compareAndSet(0, RETIRED)) {
+                users.remove(session.user, used);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The contents of the caches of a Metadata Adapter, saved to a file upon
+ * shutdown and restored upon the next startup, so that the first requests
+ * after a restart can be served from memory. <BR>
+ * The file holds the patterns of the Item families, together with the
+ * family found for each Item, and the contents of each file kept in memory,
+ * together with the last-modified time and size of the file when it was
+ * read; the users of the state are responsible for discarding the parts
+ * that are no longer valid.
+ */
+class WarmStart {
+
+    private static final int MAGIC = 0x4C535753;
+    private static final int VERSION = 2;
+
+    // names are written in modified UTF-8, which takes up to 3 bytes
+    // per char, with a limit of 65535 bytes
+    private static final int MAX_NAME_LENGTH = 65535 / 3;
+
+    /**
+     * The patterns of the Item families, in order, or null if the
+     * families are not saved.
+     */
+    String[] patterns;
+
+    /**
+     * The index of the family of each Item, or -1 for no family.
+     */
+    Map<String, Integer> families = new LinkedHashMap<String, Integer>();
+
+    /**
+     * The contents of the files kept in memory, by file name.
+     */
+    Map<String, FileCache.Entry> files = new LinkedHashMap<String, FileCache.Entry>();
+
+    /**
+     * Whether the contents of the ".items" files keep the include
+     * directives.
+     */
+    boolean includes;
+
+    /**
+     * Tells whether a name can be saved.
+     */
+    static boolean isSavable(String name) {
+        return name.length() <= MAX_NAME_LENGTH;
+    }
+
+    /**
+     * Tells whether a list of names can be saved.
+     */
+    static boolean isSavable(String[] names) {
+        for (int i = 0; i < names.length; i++) {
+            if (! isSavable(names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the state to a file, replacing it as a whole.
+     *
+     * @throws IOException in case of errors; the file is left unchanged.
+     */
+    void write(File myFile) throws IOException {
+        File tmpFile = new File(myFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            if (patterns == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(patterns.length);
+                for (int i = 0; i < patterns.length; i++) {
+                    out.writeUTF(patterns[i]);
+                }
+                out.writeInt(families.size());
+                for (Map.Entry<String, Integer> family : families.entrySet()) {
+                    out.writeUTF(family.getKey());
+                    out.writeInt(family.getValue().intValue());
+                }
+            }
+
+            out.writeBoolean(includes);
+            out.writeInt(files.size());
+            for (Map.Entry<String, FileCache.Entry> file : files.entrySet()) {
+                FileCache.Entry entry = file.getValue();
+                out.writeUTF(file.getKey());
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.length);
+                out.writeInt(entry.contents.length);
+                for (int i = 0; i < entry.contents.length; i++) {
+                    out.writeUTF(entry.contents[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmpFile.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static int readCount(DataInputStream in, long max) throws IOException {
+        // each counted element takes at least one byte, hence larger
+        // counts can only come from a damaged file
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("invalid count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads a state from a file.
+     *
+     * @throws IOException if the file cannot be read or it is not valid.
+     */
+    static WarmStart read(File myFile) throws IOException {
+        WarmStart state = new WarmStart();
+        long max = myFile.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a warm start file: " + myFile);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported warm start file version " + version + ": " + myFile);
+            }
+
+            // -1 means no patterns
+            int patternCount = in.readInt();
+            if (patternCount < -1 || patternCount > max) {
+                throw new IOException("invalid count " + patternCount);
+            }
+            if (patternCount >= 0) {
+                state.patterns = new String[patternCount];
+                for (int i = 0; i < patternCount; i++) {
+                    state.patterns[i] = in.readUTF();
+                }
+                int familyCount = readCount(in, max);
+                for (int i = 0; i < familyCount; i++) {
+                    String item = in.readUTF();
+                    state.families.put(item, Integer.valueOf(in.readInt()));
+                }
+            }
+
+            state.includes = in.readBoolean();
+            int fileCount = readCount(in, max);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < fileCount; i++) {
+                String fileName = in.readUTF();
+                long lastModified = in.readLong();
+                long length = in.readLong();
+                String[] contents = new String[readCount(in, max)];
+                for (int j = 0; j < contents.length; j++) {
+                    contents[j] = in.readUTF();
+                }
+                state.files.put(fileName, new FileCache.Entry(contents, lastModified, length, now));
+            }
+        } finally {
+            in.close();
+        }
+        return state;
+    }
+
+}
@@ -0,0 +1,433 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.lightstreamer.interfaces.metadata.MetadataProviderAdapter;
+import com.lightstreamer.interfaces.metadata.Mode;
+
+/**
+ * Load driver that replays the calls made by Lightstreamer Kernel for
+ * new Sessions against a Metadata Adapter, to measure the throughput and
+ * the latencies of notifyUser, getItems, getSchema and modeMayBeAllowed
+ * under a realistic mix. <BR>
+ * Each Session is a sequence of calls, taken either from a trace file or
+ * from a synthetic model, where a User is authenticated and then performs
+ * some subscriptions, each one made of a getItems call, a getSchema call
+ * and a modeMayBeAllowed call for each Item returned. The Sessions are
+ * replayed in a loop, either as fast as possible by a fixed number of
+ * threads or, if an arrival rate is supplied, started at that rate and
+ * run by a pool of threads; in the latter case, the Session latencies
+ * are measured since the scheduled start, hence they include any
+ * queueing, whereas the Sessions that find too many others waiting
+ * are dropped and only counted. <BR>
+ * The trace file, encoded in UTF-8, lists one call per line, with the
+ * call arguments separated by tabs, as in the following lines, where any
+ * argument may be empty; an empty line ends a Session and lines starting
+ * with a "#" are ignored:
+ * <PRE>
+ * notifyUser       &lt;user&gt;  &lt;password&gt;
+ * getItems         &lt;user&gt;  &lt;group&gt;
+ * getSchema        &lt;user&gt;  &lt;group&gt;  &lt;schema&gt;
+ * modeMayBeAllowed &lt;item&gt;  &lt;mode&gt;
+ * </PRE>
+ * Usage:
+ * <PRE>
+ * java -cp benchmarks.jar:ls-adapter-interface.jar com.lightstreamer.adapters.metadata.LoadReplay [options]
+ *   -adapter &lt;class&gt;      the Metadata Adapter class (default LiteralBasedProvider)
+ *   -conf &lt;file&gt;         properties file with the adapter parameters
+ *   -dir &lt;dir&gt;           the configuration directory (default .)
+ *   -trace &lt;file&gt;        trace to be replayed, instead of the synthetic model
+ *   -users &lt;n&gt;           synthetic model: number of Users (default 1000)
+ *   -items &lt;n&gt;           synthetic model: number of Items (default 10000)
+ *   -groups &lt;a,b,...&gt;    synthetic model: Item Groups to subscribe to (default:
+ *                        Item Lists of random Items)
+ *   -group_size &lt;n&gt;      synthetic model: size of the Item Lists (default 10)
+ *   -schemas &lt;a,b,...&gt;   synthetic model: Field Schemas (default a Field List)
+ *   -subscriptions &lt;n&gt;   synthetic model: subscriptions per Session (default 5)
+ *   -mode &lt;mode&gt;         synthetic model: subscription Mode (default MERGE)
+ *   -threads &lt;n&gt;         number of threads (default 8)
+ *   -rate &lt;n&gt;            Sessions started per second (default 0, as fast as possible)
+ *   -backlog &lt;n&gt;         with -rate, maximum Sessions waiting for a thread (default 10000)
+ *   -warmup &lt;s&gt;          seconds before the measures start (default 5)
+ *   -duration &lt;s&gt;        seconds of measures (default 30)
+ * </PRE>
+ */
+public class LoadReplay {
+
+    private static final int NOTIFY_USER = 0;
+    private static final int GET_ITEMS = 1;
+    private static final int GET_SCHEMA = 2;
+    private static final int MODE_MAY_BE_ALLOWED = 3;
+    private static final String[] METHODS = { "notifyUser", "getItems", "getSchema", "modeMayBeAllowed" };
+
+    // number of distinct synthetic Sessions, replayed in a loop
+    private static final int SYNTHETIC_SESSIONS = 10000;
+
+    private static class Call {
+        private final int method;
+        private final String[] args;
+        // for getItems in the synthetic model, whether modeMayBeAllowed
+        // should follow for all the Items returned
+        private final Mode mode;
+
+        private Call(int method, String[] args, Mode mode) {
+            this.method = method;
+            this.args = args;
+            this.mode = mode;
+        }
+    }
+
+    private final MetadataProviderAdapter adapter;
+    private final Call[][] sessions;
+
+    private final LatencyHistogram[] calls = new LatencyHistogram[METHODS.length];
+    private final LatencyHistogram sessionTimes = new LatencyHistogram();
+
+    private final AtomicLong nextSession = new AtomicLong();
+    // Sessions not started for a full backlog
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+
+    private LoadReplay(MetadataProviderAdapter adapter, Call[][] sessions) {
+        this.adapter = adapter;
+        this.sessions = sessions;
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Runs the load.
+     *
+     * @param args the options, as described above.
+     * @throws Exception in case of errors in the configuration.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i < args.length; i++) {
+            if (! args[i].startsWith("-") || i + 1 == args.length) {
+                System.err.println("Invalid option: " + args[i] + "; see the class javadoc for the usage");
+                System.exit(1);
+            }
+            options.put(args[i].substring(1), args[++i]);
+        }
+
+        String adapterClass = option(options, "adapter", LiteralBasedProvider.class.getName());
+        MetadataProviderAdapter adapter = (MetadataProviderAdapter) Class.forName(adapterClass).getDeclaredConstructor().newInstance();
+        Map<String, String> params = new HashMap<String, String>();
+        String conf = options.get("conf");
+        if (conf != null) {
+            Properties props = new Properties();
+            InputStream in = new FileInputStream(conf);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            for (String name : props.stringPropertyNames()) {
+                params.put(name, props.getProperty(name));
+            }
+        }
+        adapter.init(params, new File(option(options, "dir", ".")));
+
+        Call[][] sessions;
+        String trace = options.get("trace");
+        if (trace != null) {
+            sessions = readTrace(new File(trace));
+        } else {
+            sessions = synthesize(options);
+        }
+        System.out.println("Replaying " + sessions.length + " distinct sessions on " + adapterClass);
+
+        int threads = Integer.parseInt(option(options, "threads", "8"));
+        double rate = Double.parseDouble(option(options, "rate", "0"));
+        int backlog = Integer.parseInt(option(options, "backlog", "10000"));
+        long warmup = Long.parseLong(option(options, "warmup", "5"));
+        long duration = Long.parseLong(option(options, "duration", "30"));
+
+        new LoadReplay(adapter, sessions).run(threads, rate, backlog, warmup, duration);
+        System.exit(0);
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return (value != null ? value : defaultValue);
+    }
+
+    private static Mode toMode(String name) {
+        if (name.equals(Mode.RAW.toString())) {
+            return Mode.RAW;
+        } else if (name.equals(Mode.MERGE.toString())) {
+            return Mode.MERGE;
+        } else if (name.equals(Mode.DISTINCT.toString())) {
+            return Mode.DISTINCT;
+        } else if (name.equals(Mode.COMMAND.toString())) {
+            return Mode.COMMAND;
+        } else {
+            throw new IllegalArgumentException("invalid mode: " + name);
+        }
+    }
+
+    private static Call[][] readTrace(File traceFile) throws IOException {
+        List<Call[]> sessions = new ArrayList<Call[]>();
+        List<Call> session = new ArrayList<Call>();
+        BufferedReader source = new BufferedReader(new InputStreamReader(new FileInputStream(traceFile), "UTF-8"));
+        try {
+            int lineNumber = 0;
+            while (true) {
+                String line = source.readLine();
+                lineNumber++;
+                if (line == null || line.trim().length() == 0) {
+                    if (! session.isEmpty()) {
+                        sessions.add(session.toArray(new Call[session.size()]));
+                        session.clear();
+                    }
+                    if (line == null) {
+                        break;
+                    }
+                    continue;
+                }
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                // trailing empty fields, like an empty password, are kept
+                String[] fields = line.split("\t", -1);
+                String[] callArgs = new String[fields.length - 1];
+                System.arraycopy(fields, 1, callArgs, 0, callArgs.length);
+                int method = -1;
+                for (int i = 0; i < METHODS.length; i++) {
+                    if (METHODS[i].equals(fields[0])) {
+                        method = i;
+                    }
+                }
+                int expected = (method == GET_SCHEMA ? 3 : 2);
+                if (method < 0 || callArgs.length != expected) {
+                    throw new IOException("invalid call at line " + lineNumber + " of " + traceFile);
+                }
+                if (method == MODE_MAY_BE_ALLOWED) {
+                    session.add(new Call(method, new String[] { callArgs[0] }, toMode(callArgs[1])));
+                } else {
+                    session.add(new Call(method, callArgs, null));
+                }
+            }
+        } finally {
+            source.close();
+        }
+        if (sessions.isEmpty()) {
+            throw new IOException("no sessions in " + traceFile);
+        }
+        return sessions.toArray(new Call[sessions.size()][]);
+    }
+
+    private static Call[][] synthesize(Map<String, String> options) {
+        int users = Integer.parseInt(option(options, "users", "1000"));
+        int items = Integer.parseInt(option(options, "items", "10000"));
+        int groupSize = Integer.parseInt(option(options, "group_size", "10"));
+        int subscriptions = Integer.parseInt(option(options, "subscriptions", "5"));
+        Mode mode = toMode(option(options, "mode", "MERGE"));
+        String groupList = options.get("groups");
+        String[] groups = (groupList != null ? groupList.split(",") : null);
+        String[] schemas = option(options, "schemas", "last_price time pct_change bid ask").split(",");
+
+        Random random = new Random(0);
+        Call[][] sessions = new Call[SYNTHETIC_SESSIONS][];
+        for (int s = 0; s < sessions.length; s++) {
+            String user = "user" + random.nextInt(users);
+            Call[] session = new Call[1 + 2 * subscriptions];
+            session[0] = new Call(NOTIFY_USER, new String[] { user, "password" }, null);
+            for (int i = 0; i < subscriptions; i++) {
+                String group;
+                if (groups != null) {
+                    group = groups[random.nextInt(groups.length)];
+                } else {
+                    StringBuilder list = new StringBuilder();
+                    for (int j = 0; j < groupSize; j++) {
+                        if (j > 0) {
+                            list.append(' ');
+                        }
+                        list.append("item").append(random.nextInt(items));
+                    }
+                    group = list.toString();
+                }
+                String schema = schemas[random.nextInt(schemas.length)];
+                session[1 + 2 * i] = new Call(GET_ITEMS, new String[] { user, group }, mode);
+                session[2 + 2 * i] = new Call(GET_SCHEMA, new String[] { user, group, schema }, null);
+            }
+            sessions[s] = session;
+        }
+        return sessions;
+    }
+
+    private void run(int threads, double rate, int backlog, long warmup, long duration) throws InterruptedException {
+        ExecutorService workers;
+        if (rate > 0) {
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(backlog), new RejectedExecutionHandler() {
+                        public void rejectedExecution(Runnable session, ThreadPoolExecutor executor) {
+                            dropped.incrementAndGet();
+                        }
+                    });
+            workers = pool;
+            final long interval = (long) (1000000000L / rate);
+            Thread dispatcher = new Thread(new Runnable() {
+                public void run() {
+                    long next = System.nanoTime();
+                    while (running) {
+                        final long scheduled = next;
+                        pool.execute(new Runnable() {
+                            public void run() {
+                                if (running) {
+                                    runSession(scheduled);
+                                }
+                            }
+                        });
+                        next += interval;
+                        long wait = next - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                }
+            }, "Session dispatcher");
+            dispatcher.start();
+        } else {
+            workers = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        while (running) {
+                            runSession(System.nanoTime());
+                        }
+                    }
+                });
+            }
+        }
+
+        Thread.sleep(warmup * 1000);
+        for (int i = 0; i < calls.length; i++) {
+            calls[i].reset();
+        }
+        sessionTimes.reset();
+        dropped.set(0);
+        Thread.sleep(duration * 1000);
+
+        report(workers, rate);
+        running = false;
+        workers.shutdownNow();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void runSession(long scheduled) {
+        long number = nextSession.getAndIncrement();
+        Call[] session = sessions[(int) (number % sessions.length)];
+        String sessionID = "S" + Long.toHexString(number);
+        boolean ok = true;
+        for (int i = 0; i < session.length && ok; i++) {
+            ok = call(session[i], sessionID);
+        }
+        sessionTimes.record(scheduled, ok);
+    }
+
+    private boolean call(Call call, String sessionID) {
+        // the method being timed, which may change along a getItems call
+        int method = call.method;
+        long start = System.nanoTime();
+        try {
+            switch (call.method) {
+            case NOTIFY_USER:
+                adapter.notifyUser(call.args[0], call.args[1], new HashMap<String, String>());
+                break;
+            case GET_ITEMS:
+                String[] items = adapter.getItems(call.args[0], sessionID, call.args[1]);
+                calls[GET_ITEMS].record(start, true);
+                if (call.mode != null) {
+                    method = MODE_MAY_BE_ALLOWED;
+                    for (int i = 0; i < items.length; i++) {
+                        start = System.nanoTime();
+                        adapter.modeMayBeAllowed(items[i], call.mode);
+                        calls[MODE_MAY_BE_ALLOWED].record(start, true);
+                    }
+                }
+                return true;
+            case GET_SCHEMA:
+                adapter.getSchema(call.args[0], sessionID, call.args[1], call.args[2]);
+                break;
+            case MODE_MAY_BE_ALLOWED:
+                adapter.modeMayBeAllowed(call.args[0], call.mode);
+                break;
+            default:
+                throw new IllegalStateException();
+            }
+            calls[method].record(start, true);
+            return true;
+        } catch (Exception e) {
+            // as the Kernel would, the Session is given up
+            calls[method].record(start, false);
+            return false;
+        }
+    }
+
+    private void report(ExecutorService workers, double rate) {
+        System.out.println();
+        System.out.println(String.format("%-18s %10s %8s %12s %10s %10s %10s %10s %10s",
+                "", "calls", "errors", "calls/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+        for (int i = 0; i < calls.length; i++) {
+            print(METHODS[i], calls[i]);
+        }
+        print("session", sessionTimes);
+        if (rate > 0) {
+            int backlog = ((ThreadPoolExecutor) workers).getQueue().size();
+            System.out.println();
+            System.out.println(String.format("Target rate %.1f sessions/s, achieved %.1f sessions/s, backlog %d sessions, dropped %d sessions",
+                    rate, sessionTimes.getRate(), backlog, dropped.get()));
+        }
+    }
+
+    private static void print(String name, LatencyHistogram histogram) {
+        // the percentiles are bucket bounds, which may exceed the actual maximum
+        double max = histogram.getMaxMicros();
+        System.out.println(String.format("%-18s %10d %8d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f",
+                name, histogram.getCount(), histogram.getErrors(), histogram.getRate(),
+                Math.min(histogram.getPercentileMicros(50), max), Math.min(histogram.getPercentileMicros(90), max),
+                Math.min(histogram.getPercentileMicros(99), max), Math.min(histogram.getPercentileMicros(99.9), max),
+                max));
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lightstreamer.adapters.metadata.LiteralBasedProvider;
+import com.lightstreamer.interfaces.metadata.AccessException;
+import com.lightstreamer.interfaces.metadata.CreditsException;
+
+/**
+ * Measures the User check performed by LiteralBasedProvider.notifyUser
+ * with allow lists of variable size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllowedUsersBenchmark {
+
+    @Param({ "10", "10000", "100000" })
+    public int userCount;
+
+    private LiteralBasedProvider provider;
+    private String[] users;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        users = new String[userCount];
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < userCount; i++) {
+            users[i] = "user" + i;
+            if (i > 0) {
+                list.append(',');
+            }
+            list.append(users[i]);
+        }
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("allowed_users", list.toString());
+        provider = new LiteralBasedProvider();
+        provider.init(params, null);
+    }
+
+    private String nextUser(Cursor cursor) {
+        String user = users[cursor.next];
+        cursor.next = (cursor.next + 1) % users.length;
+        return user;
+    }
+
+    @Benchmark
+    public void notifyUser(Cursor cursor) throws AccessException, CreditsException {
+        provider.notifyUser(nextUser(cursor), null);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void notifyUserContended(Cursor cursor) throws AccessException, CreditsException {
+        provider.notifyUser(nextUser(cursor), null);
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata.jmh;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lightstreamer.adapters.metadata.FileBasedProvider;
+import com.lightstreamer.interfaces.metadata.ItemsException;
+
+/**
+ * Measures the resolution of Item Groups by FileBasedProvider.getItems
+ * in its different caching modes, on a temporary directory of generated
+ * ".items" files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileReadBenchmark {
+
+    @Param({ "N", "Y", "CHECK", "WATCH", "PRELOAD" })
+    public String mode;
+
+    @Param({ "10", "1000" })
+    public int groupSize;
+
+    @Param({ "100" })
+    public int groupCount;
+
+    private File dir;
+    private FileBasedProvider provider;
+    private String[] groups;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        dir = File.createTempFile("groups", "");
+        dir.delete();
+        dir.mkdir();
+
+        groups = new String[groupCount];
+        for (int g = 0; g < groupCount; g++) {
+            groups[g] = "group" + g;
+            Writer out = new FileWriter(new File(dir, groups[g] + ".items"));
+            try {
+                out.write("# generated group\n");
+                for (int i = 0; i < groupSize; i++) {
+                    out.write("item" + (g + i) + "\n");
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("search_dir", dir.getAbsolutePath());
+        params.put("static", mode);
+        provider = new FileBasedProvider();
+        provider.init(params, dir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    private String nextGroup(Cursor cursor) {
+        String group = groups[cursor.next];
+        cursor.next = (cursor.next + 1) % groups.length;
+        return group;
+    }
+
+    @Benchmark
+    public String[] getItems(Cursor cursor) throws ItemsException {
+        return provider.getItems("user", nextGroup(cursor));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String[] getItemsContended(Cursor cursor) throws ItemsException {
+        return provider.getItems("user", nextGroup(cursor));
+    }
+
+}
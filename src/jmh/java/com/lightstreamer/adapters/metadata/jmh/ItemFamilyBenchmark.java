@@ -0,0 +1,114 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lightstreamer.adapters.metadata.LiteralBasedProvider;
+import com.lightstreamer.interfaces.metadata.Mode;
+
+/**
+ * Measures LiteralBasedProvider.modeMayBeAllowed with a variable number
+ * of item families, either of the "prefix.*" kind or of a generic kind,
+ * with and without the item family cache.
+ * The requested items are spread evenly over all families.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemFamilyBenchmark {
+
+    @Param({ "1", "40", "400" })
+    public int familyCount;
+
+    @Param({ "prefix", "regex" })
+    public String patternKind;
+
+    @Param({ "0", "100000" })
+    public int familyCacheSize;
+
+    @Param({ "10000" })
+    public int itemCount;
+
+    private LiteralBasedProvider provider;
+    private String[] items;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        for (int i = 1; i <= familyCount; i++) {
+            if (patternKind.equals("prefix")) {
+                params.put("item_family_" + i, "family" + i + "_.*");
+            } else {
+                params.put("item_family_" + i, "family" + i + "_[a-z]+[0-9]*");
+            }
+            params.put("modes_for_item_family_" + i, "MERGE,RAW");
+        }
+        if (familyCacheSize > 0) {
+            params.put("family_cache_size", String.valueOf(familyCacheSize));
+        }
+        provider = new LiteralBasedProvider();
+        provider.init(params, null);
+
+        items = new String[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            items[i] = "family" + (1 + i % familyCount) + "_item" + i;
+        }
+    }
+
+    private String nextItem(Cursor cursor) {
+        String item = items[cursor.next];
+        cursor.next = (cursor.next + 1) % items.length;
+        return item;
+    }
+
+    @Benchmark
+    public boolean modeMayBeAllowed(Cursor cursor) {
+        return provider.modeMayBeAllowed(nextItem(cursor), Mode.MERGE);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean modeMayBeAllowedContended(Cursor cursor) {
+        return provider.modeMayBeAllowed(nextItem(cursor), Mode.MERGE);
+    }
+
+}
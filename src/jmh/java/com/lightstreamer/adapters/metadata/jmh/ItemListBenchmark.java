@@ -0,0 +1,91 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lightstreamer.adapters.metadata.LiteralBasedProvider;
+import com.lightstreamer.interfaces.metadata.ItemsException;
+
+/**
+ * Measures the resolution of Item List specifications by
+ * LiteralBasedProvider.getItems, with and without the list cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemListBenchmark {
+
+    @Param({ "1", "50", "1000" })
+    public int listLength;
+
+    @Param({ "0", "10000" })
+    public int listCacheSize;
+
+    private LiteralBasedProvider provider;
+    private String itemList;
+
+    @Setup
+    public void setup() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        if (listCacheSize > 0) {
+            params.put("list_cache_size", String.valueOf(listCacheSize));
+        }
+        provider = new LiteralBasedProvider();
+        provider.init(params, null);
+
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < listLength; i++) {
+            if (i > 0) {
+                list.append(' ');
+            }
+            list.append("item").append(i);
+        }
+        itemList = list.toString();
+    }
+
+    @Benchmark
+    public String[] getItems() throws ItemsException {
+        return provider.getItems("user", itemList);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String[] getItemsContended() throws ItemsException {
+        return provider.getItems("user", itemList);
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests for AdaptiveLimits, with the evaluations driven by the test
+ * on a simulated clock.
+ */
+public class AdaptiveLimitsTest {
+
+    private static final double DELTA = 1e-9;
+
+    private long now = 1000000;
+
+    private void second(AdaptiveLimits limits, int calls) {
+        for (int i = 0; i < calls; i++) {
+            limits.called();
+        }
+        now += 1000;
+        limits.update(now);
+    }
+
+    private AdaptiveLimits start(AdaptiveLimits limits) {
+        // the first evaluation only sets the starting point
+        limits.update(now);
+        return limits;
+    }
+
+    @Test
+    public void shrinksWithTheSmoothedRate() {
+        AdaptiveLimits limits = start(new AdaptiveLimits(100, 0, 0.2, 0.5));
+        assertEquals(1.0, limits.getFactor(), DELTA);
+
+        // under the target, nothing changes
+        second(limits, 100);
+        assertEquals(1.0, limits.getFactor(), DELTA);
+
+        // a load of 4, smoothed to 0.25 + 2 and then to 1.125 + 2
+        second(limits, 400);
+        assertEquals(1 / 2.25, limits.getFactor(), DELTA);
+        second(limits, 400);
+        assertEquals(1 / 3.125, limits.getFactor(), DELTA);
+        assertEquals(100 / 3.125, limits.apply(100), DELTA);
+    }
+
+    @Test
+    public void neverGoesBelowTheMinimum() {
+        AdaptiveLimits limits = start(new AdaptiveLimits(100, 0, 0.2, 0.5));
+        double previous = 1.0;
+        for (int i = 0; i < 20; i++) {
+            second(limits, 10000);
+            double factor = limits.getFactor();
+            assertTrue("factor " + factor, factor >= 0.2 - DELTA);
+            assertTrue("factor " + factor, factor <= previous + DELTA);
+            previous = factor;
+        }
+        assertEquals(0.2, limits.getFactor(), DELTA);
+    }
+
+    @Test
+    public void recoversWhenTheLoadDrops() {
+        AdaptiveLimits limits = start(new AdaptiveLimits(100, 0, 0.2, 0.5));
+        for (int i = 0; i < 10; i++) {
+            second(limits, 1000);
+        }
+        assertEquals(0.2, limits.getFactor(), DELTA);
+
+        double previous = limits.getFactor();
+        int seconds = 0;
+        while (limits.getFactor() < 1.0) {
+            second(limits, 0);
+            double factor = limits.getFactor();
+            assertTrue("factor " + factor, factor >= previous - DELTA);
+            previous = factor;
+            seconds++;
+            assertTrue("not recovered", seconds < 20);
+        }
+        // exactly back to the configured limits
+        assertEquals(1.0, limits.getFactor(), 0);
+        assertEquals(100, limits.apply(100), 0);
+    }
+
+    @Test
+    public void followsTheSubscribedItems() {
+        AdaptiveLimits limits = start(new AdaptiveLimits(0, 1000, 0.1, 1));
+        limits.subscribed(500);
+        second(limits, 100000);
+        // the rate is not considered
+        assertEquals(1.0, limits.getFactor(), DELTA);
+
+        limits.subscribed(3500);
+        second(limits, 0);
+        assertEquals(0.25, limits.getFactor(), DELTA);
+
+        limits.subscribed(-3000);
+        second(limits, 0);
+        assertEquals(1.0, limits.getFactor(), DELTA);
+    }
+
+    @Test
+    public void takesTheHigherLoad() {
+        AdaptiveLimits limits = start(new AdaptiveLimits(100, 1000, 0.1, 1));
+        limits.subscribed(2000);
+        second(limits, 400);
+        assertEquals(0.25, limits.getFactor(), DELTA);
+        second(limits, 100);
+        assertEquals(0.5, limits.getFactor(), DELTA);
+    }
+
+    @Test
+    public void ignoresSmallChanges() {
+        AdaptiveLimits limits = start(new AdaptiveLimits(100, 0, 0.1, 1));
+        second(limits, 200);
+        assertEquals(0.5, limits.getFactor(), DELTA);
+        // 0.5 against 1 / 2.01
+        second(limits, 201);
+        assertEquals(0.5, limits.getFactor(), DELTA);
+    }
+
+    @Test
+    public void leavesUnlimitedValuesUnlimited() {
+        AdaptiveLimits limits = start(new AdaptiveLimits(100, 0, 0.1, 1));
+        second(limits, 1000);
+        assertEquals(0.1, limits.getFactor(), DELTA);
+        assertEquals(0, limits.apply(0), 0);
+        assertEquals(1, limits.apply(10), DELTA);
+    }
+
+    @Test
+    public void checksTheArguments() {
+        double[][] args = new double[][] {
+            { 0, 0, 0.5, 0.5 },
+            { 100, 0, 0, 0.5 },
+            { 100, 0, 1.5, 0.5 },
+            { 100, 0, 0.5, 0 },
+            { 100, 0, 0.5, 1.5 },
+        };
+        for (int i = 0; i < args.length; i++) {
+            try {
+                new AdaptiveLimits(args[i][0], (long) args[i][1], args[i][2], args[i][3]);
+                fail("accepted case " + i);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+}
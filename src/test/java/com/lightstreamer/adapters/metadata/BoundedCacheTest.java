@@ -0,0 +1,162 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests for BoundedCache.
+ */
+public class BoundedCacheTest {
+
+    // with 48 entries there are 16 segments of 3 entries each and
+    // multiples of 16 all fall in the same segment
+    private static final int SIZE = 48;
+
+    @Test
+    public void lruEvictsTheLeastRecentlyUsed() {
+        BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(SIZE, BoundedCache.LRU);
+        cache.put(0, "a");
+        cache.put(16, "b");
+        cache.put(32, "c");
+        assertEquals("a", cache.get(0));
+        cache.put(48, "d");
+
+        assertEquals("a", cache.get(0));
+        assertNull(cache.get(16));
+        assertEquals("c", cache.get(32));
+        assertEquals("d", cache.get(48));
+    }
+
+    @Test
+    public void fifoEvictsTheFirstInserted() {
+        BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(SIZE, BoundedCache.FIFO);
+        cache.put(0, "a");
+        cache.put(16, "b");
+        cache.put(32, "c");
+        assertEquals("a", cache.get(0));
+        cache.put(48, "d");
+
+        assertNull(cache.get(0));
+        assertEquals("b", cache.get(16));
+        assertEquals("c", cache.get(32));
+        assertEquals("d", cache.get(48));
+    }
+
+    @Test
+    public void policyIsCaseInsensitiveAndDefaultsToLru() {
+        BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(SIZE, null);
+        cache.put(0, "a");
+        cache.put(16, "b");
+        cache.put(32, "c");
+        cache.get(0);
+        cache.put(48, "d");
+        assertNull(cache.get(16));
+
+        new BoundedCache<Integer, String>(SIZE, "fifo");
+    }
+
+    @Test
+    public void sizeNeverExceedsTheMaximum() {
+        int[] sizes = new int[] { 1, 2, 3, 7, 17, 100, 1000 };
+        for (int i = 0; i < sizes.length; i++) {
+            BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(sizes[i], BoundedCache.LRU);
+            for (int k = 0; k < sizes[i] * 20; k++) {
+                cache.put(k, k);
+                assertTrue(cache.size() <= sizes[i]);
+            }
+            assertEquals(sizes[i], cache.size());
+        }
+    }
+
+    @Test
+    public void putIfAbsentKeepsTheCurrentValue() {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(10, BoundedCache.LRU);
+        assertNull(cache.putIfAbsent("k", "first"));
+        assertEquals("first", cache.putIfAbsent("k", "second"));
+        assertEquals("first", cache.get("k"));
+    }
+
+    @Test
+    public void removeAndClear() {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>(10, BoundedCache.LRU);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.remove("a"));
+        assertNull(cache.remove("a"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.toMap().size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesNonPositiveSizes() {
+        new BoundedCache<String, String>(0, BoundedCache.LRU);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesUnknownPolicies() {
+        new BoundedCache<String, String>(10, "MRU");
+    }
+
+    @Test
+    public void concurrentUpdatesKeepTheBound() throws InterruptedException {
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(100, BoundedCache.LRU);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            int key = (i * 31 + seed) % 1000;
+                            if (cache.get(key) == null) {
+                                cache.putIfAbsent(key, key);
+                            }
+                            if (i % 7 == 0) {
+                                cache.remove(key);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertTrue(cache.size() <= 100);
+    }
+
+}
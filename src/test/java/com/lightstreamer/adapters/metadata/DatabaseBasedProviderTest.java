@@ -0,0 +1,405 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.AccessException;
+import com.lightstreamer.interfaces.metadata.ItemsException;
+import com.lightstreamer.interfaces.metadata.MetadataProviderException;
+
+/**
+ * Tests for DatabaseBasedProvider, against an in-memory H2 database.
+ */
+public class DatabaseBasedProviderTest {
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    /**
+     * Driver for "jdbc:counting:" urls, which opens the connections of
+     * the embedded database behind the prefix and counts the queries.
+     */
+    public static class CountingDriver implements Driver {
+
+        private static final String PREFIX = "jdbc:counting:";
+
+        static final AtomicInteger connections = new AtomicInteger();
+        static final AtomicInteger queries = new AtomicInteger();
+        static final AtomicInteger running = new AtomicInteger();
+        static final AtomicInteger maxRunning = new AtomicInteger();
+        static volatile long delayMillis;
+        static volatile boolean readOnlyRefused;
+
+        static {
+            try {
+                DriverManager.registerDriver(new CountingDriver());
+            } catch (SQLException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        static void reset() {
+            connections.set(0);
+            queries.set(0);
+            running.set(0);
+            maxRunning.set(0);
+            delayMillis = 0;
+            readOnlyRefused = false;
+        }
+
+        private static Object wrap(final Object target, Class<?> type) {
+            return Proxy.newProxyInstance(CountingDriver.class.getClassLoader(), new Class<?>[] { type },
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (readOnlyRefused && method.getName().equals("setReadOnly")) {
+                                throw new SQLException("cannot change read-only mode once connected");
+                            }
+                            boolean query = method.getName().equals("executeQuery");
+                            if (query) {
+                                queries.incrementAndGet();
+                                int now = running.incrementAndGet();
+                                int max;
+                                while ((max = maxRunning.get()) < now && ! maxRunning.compareAndSet(max, now)) {
+                                }
+                                if (delayMillis > 0) {
+                                    Thread.sleep(delayMillis);
+                                }
+                            }
+                            try {
+                                Object result = method.invoke(target, args);
+                                Class<?> returned = method.getReturnType();
+                                if (returned == Statement.class || returned == PreparedStatement.class) {
+                                    return wrap(result, returned);
+                                }
+                                return result;
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            } finally {
+                                if (query) {
+                                    running.decrementAndGet();
+                                }
+                            }
+                        }
+                    });
+        }
+
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (! acceptsURL(url)) {
+                return null;
+            }
+            Connection connection = DriverManager.getConnection(url.substring(PREFIX.length()), info);
+            connections.incrementAndGet();
+            return (Connection) wrap(connection, Connection.class);
+        }
+
+        public boolean acceptsURL(String url) {
+            return url.startsWith(PREFIX);
+        }
+
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    private String url;
+    // keeps the database alive
+    private Connection connection;
+
+    @Before
+    public void createDatabase() throws Exception {
+        Class.forName(CountingDriver.class.getName());
+        CountingDriver.reset();
+        url = "jdbc:h2:mem:metadata" + databases.incrementAndGet();
+        connection = DriverManager.getConnection(url);
+        execute("CREATE TABLE metadata_items (group_name VARCHAR(100), position INT, item_name VARCHAR(100))");
+        execute("CREATE TABLE metadata_fields (schema_name VARCHAR(100), position INT, field_name VARCHAR(100))");
+        execute("CREATE TABLE metadata_users (user_name VARCHAR(100))");
+        insert("metadata_fields", "schema", "last_price", "time");
+        for (int i = 0; i < 6; i++) {
+            insert("metadata_items", "g" + i, "item" + i + "_0", "item" + i + "_1");
+        }
+    }
+
+    @After
+    public void dropDatabase() throws SQLException {
+        connection.close();
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void insert(String table, String list, String... names) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO " + table + " VALUES (?, ?, ?)");
+        try {
+            // in reverse, as the names have to be sorted by position
+            for (int i = names.length - 1; i >= 0; i--) {
+                statement.setString(1, list);
+                statement.setInt(2, i);
+                statement.setString(3, names[i]);
+                statement.executeUpdate();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void setUsers(String... users) throws SQLException {
+        execute("DELETE FROM metadata_users");
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO metadata_users VALUES (?)");
+        try {
+            for (int i = 0; i < users.length; i++) {
+                statement.setString(1, users[i]);
+                statement.executeUpdate();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private DatabaseBasedProvider provider(String... params) throws Exception {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("jdbc_url", "jdbc:counting:" + url);
+        for (int i = 0; i < params.length; i += 2) {
+            map.put(params[i], params[i + 1]);
+        }
+        DatabaseBasedProvider provider = new DatabaseBasedProvider();
+        provider.init(map, new File("."));
+        return provider;
+    }
+
+    private static void assertMissing(DatabaseBasedProvider provider, String group) {
+        try {
+            provider.getItems("user", group);
+            fail("found " + group);
+        } catch (ItemsException e) {
+            assertEquals("group not found: " + group, e.getMessage());
+        }
+    }
+
+    @Test
+    public void readsGroupsAndSchemasInOrder() throws Exception {
+        DatabaseBasedProvider provider = provider();
+        assertArrayEquals(new String[] { "item0_0", "item0_1" }, provider.getItems("user", "g0"));
+        assertArrayEquals(new String[] { "last_price", "time" }, provider.getSchema("user", "g0", "schema"));
+        assertMissing(provider, "none");
+    }
+
+    @Test
+    public void worksWhereReadOnlyCannotBeSet() throws Exception {
+        CountingDriver.readOnlyRefused = true;
+        DatabaseBasedProvider provider = provider();
+        assertArrayEquals(new String[] { "item0_0", "item0_1" }, provider.getItems("user", "g0"));
+    }
+
+    @Test
+    public void keepsWhatIsFound() throws Exception {
+        DatabaseBasedProvider provider = provider();
+        String[] items = provider.getItems("user", "g0");
+        int count = CountingDriver.queries.get();
+        assertTrue(provider.getItems("user", "g0") == items);
+        assertEquals(count, CountingDriver.queries.get());
+    }
+
+    @Test
+    public void queriesEachNameOnceUnderConcurrency() throws Exception {
+        final DatabaseBasedProvider provider = provider("pool_size", "8");
+        CountingDriver.queries.set(0);
+        CountingDriver.delayMillis = 200;
+        List<String[]> results = concurrently(8, new Callable<String[]>() {
+            public String[] call() throws ItemsException {
+                return provider.getItems("user", "g1");
+            }
+        });
+        assertEquals(1, CountingDriver.queries.get());
+        for (int i = 0; i < results.size(); i++) {
+            assertTrue(results.get(i) == results.get(0));
+        }
+    }
+
+    @Test
+    public void poolLimitsTheConcurrentQueries() throws Exception {
+        final DatabaseBasedProvider provider = provider("pool_size", "2");
+        CountingDriver.delayMillis = 100;
+        final AtomicInteger next = new AtomicInteger();
+        List<String[]> results = concurrently(6, new Callable<String[]>() {
+            public String[] call() throws ItemsException {
+                return provider.getItems("user", "g" + next.getAndIncrement());
+            }
+        });
+        assertEquals(6, results.size());
+        assertTrue(CountingDriver.maxRunning.get() <= 2);
+        assertTrue(CountingDriver.connections.get() <= 2);
+    }
+
+    private static List<String[]> concurrently(int threads, final Callable<String[]> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<String[]>> futures = new ArrayList<Future<String[]>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<String[]>() {
+                    public String[] call() throws Exception {
+                        start.await();
+                        return task.call();
+                    }
+                }));
+            }
+            start.countDown();
+            List<String[]> results = new ArrayList<String[]>();
+            for (int i = 0; i < threads; i++) {
+                results.add(futures.get(i).get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void remembersMissingNamesIfConfigured() throws Exception {
+        DatabaseBasedProvider provider = provider("missing_millis", "60000");
+        CountingDriver.queries.set(0);
+        assertMissing(provider, "g9");
+        insert("metadata_items", "g9", "item9_0");
+        assertMissing(provider, "g9");
+        assertEquals(1, CountingDriver.queries.get());
+
+        // by default, each request queries again
+        provider = provider();
+        CountingDriver.queries.set(0);
+        assertMissing(provider, "none");
+        assertMissing(provider, "none");
+        assertEquals(2, CountingDriver.queries.get());
+        assertArrayEquals(new String[] { "item9_0" }, provider.getItems("user", "g9"));
+    }
+
+    @Test
+    public void preloadFillsTheCache() throws Exception {
+        DatabaseBasedProvider provider = provider("preload", "Y", "cache_size", "4");
+        CountingDriver.queries.set(0);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(new String[] { "item" + i + "_0", "item" + i + "_1" }, provider.getItems("user", "g" + i));
+        }
+        assertArrayEquals(new String[] { "last_price", "time" }, provider.getSchema("user", "g0", "schema"));
+        assertEquals(0, CountingDriver.queries.get());
+
+        // beyond the size of the cache, the groups are queried
+        assertArrayEquals(new String[] { "item5_0", "item5_1" }, provider.getItems("user", "g5"));
+        assertEquals(1, CountingDriver.queries.get());
+    }
+
+    private static boolean isAllowed(DatabaseBasedProvider provider, String user) {
+        try {
+            provider.notifyUser(user, "password");
+            return true;
+        } catch (AccessException e) {
+            return false;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void refusesNonPositiveCacheSizes() throws Exception {
+        String[] sizes = new String[] { "0", "-1" };
+        for (int i = 0; i < sizes.length; i++) {
+            try {
+                provider("cache_size", sizes[i], "missing_millis", "1000");
+                fail("accepted " + sizes[i]);
+            } catch (MetadataProviderException e) {
+                // the error names the parameter
+                assertTrue(e.getMessage(), e.getMessage().contains("cache_size:"));
+                assertTrue(e.getMessage(), ! e.getMessage().contains("missing"));
+            }
+        }
+    }
+
+    @Test
+    public void reloadsTheAllowedUsers() throws Exception {
+        setUsers("alice");
+        DatabaseBasedProvider provider = provider("users_query", "SELECT user_name FROM metadata_users",
+                "users_reload_millis", "50");
+        assertTrue(isAllowed(provider, "alice"));
+        assertTrue(! isAllowed(provider, "bob"));
+
+        setUsers("bob");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (! isAllowed(provider, "bob") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(isAllowed(provider, "bob"));
+        assertTrue(! isAllowed(provider, "alice"));
+    }
+
+}
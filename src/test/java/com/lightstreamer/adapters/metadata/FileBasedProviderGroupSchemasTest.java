@@ -0,0 +1,155 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static com.lightstreamer.adapters.metadata.MetadataFolder.assertSchemaEventually;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.SchemaException;
+
+/**
+ * Tests for the group-specific Field Schemas of FileBasedProvider.
+ */
+public class FileBasedProviderGroupSchemasTest {
+
+    private static final String[] MODES = new String[] { "N", "Y", "CHECK", "WATCH", "PRELOAD" };
+
+    private static final String[] BASE = new String[] { "last", "time" };
+    private static final String[] OVERRIDE = new String[] { "bid", "ask", "time" };
+
+    @Rule
+    public final MetadataFolder folder = new MetadataFolder();
+
+    @Before
+    public void writeBase() throws IOException {
+        folder.write("quote.schema", "last\ntime\n");
+    }
+
+    @Test
+    public void prefersTheOverride() throws Exception {
+        folder.write("bonds.quote.schema", "bid\nask\ntime\n");
+        for (int i = 0; i < MODES.length; i++) {
+            FileBasedProvider provider = folder.provider(MODES[i], "group_schemas", "Y");
+            // twice, to also get the remembered lookups
+            for (int j = 0; j < 2; j++) {
+                assertArrayEquals(MODES[i], OVERRIDE, provider.getSchema("user", "bonds", "quote"));
+                assertArrayEquals(MODES[i], BASE, provider.getSchema("user", "stocks", "quote"));
+            }
+        }
+    }
+
+    @Test
+    public void ignoresTheOverrideByDefault() throws Exception {
+        folder.write("bonds.quote.schema", "bid\nask\ntime\n");
+        for (int i = 0; i < MODES.length; i++) {
+            assertArrayEquals(MODES[i], BASE, folder.provider(MODES[i]).getSchema("user", "bonds", "quote"));
+        }
+    }
+
+    @Test
+    public void reportsMissingSchemas() throws Exception {
+        for (int i = 0; i < MODES.length; i++) {
+            try {
+                folder.provider(MODES[i], "group_schemas", "Y").getSchema("user", "bonds", "missing");
+                fail(MODES[i]);
+            } catch (SchemaException e) {
+                // the fallback is the one reported
+                assertTrue(e.getMessage(), e.getMessage().contains("missing.schema"));
+            }
+        }
+    }
+
+    @Test
+    public void followsOverridesWithCheck() throws Exception {
+        FileBasedProvider provider = folder.provider("CHECK", "group_schemas", "Y");
+        assertArrayEquals(BASE, provider.getSchema("user", "bonds", "quote"));
+
+        folder.write("bonds.quote.schema", "bid\nask\ntime\n");
+        assertArrayEquals(OVERRIDE, provider.getSchema("user", "bonds", "quote"));
+
+        assertTrue(folder.file("bonds.quote.schema").delete());
+        assertArrayEquals(BASE, provider.getSchema("user", "bonds", "quote"));
+    }
+
+    @Test
+    public void followsOverridesWithCheckMillis() throws Exception {
+        FileBasedProvider provider = folder.provider("CHECK", "group_schemas", "Y", "check_millis", "100");
+        assertArrayEquals(BASE, provider.getSchema("user", "bonds", "quote"));
+
+        folder.write("bonds.quote.schema", "bid\nask\ntime\n");
+        // the lookup is remembered until the next check is due
+        assertArrayEquals(BASE, provider.getSchema("user", "bonds", "quote"));
+        assertSchemaEventually(provider, "bonds", "quote", OVERRIDE);
+    }
+
+    @Test
+    public void followsOverridesWithWatch() throws Exception {
+        FileBasedProvider provider = folder.provider("WATCH", "group_schemas", "Y");
+        assertArrayEquals(BASE, provider.getSchema("user", "bonds", "quote"));
+
+        folder.write("bonds.quote.schema", "bid\nask\ntime\n");
+        assertSchemaEventually(provider, "bonds", "quote", OVERRIDE);
+
+        assertTrue(folder.file("bonds.quote.schema").delete());
+        assertSchemaEventually(provider, "bonds", "quote", BASE);
+    }
+
+    @Test
+    public void keepsTheLookupWithY() throws Exception {
+        FileBasedProvider provider = folder.provider("Y", "group_schemas", "Y");
+        assertArrayEquals(BASE, provider.getSchema("user", "bonds", "quote"));
+        folder.write("bonds.quote.schema", "bid\nask\ntime\n");
+        assertArrayEquals(BASE, provider.getSchema("user", "bonds", "quote"));
+    }
+
+    @Test
+    public void findsOverridesInTheIndex() throws Exception {
+        folder.write("bonds.quote.schema", "bid\nask\ntime\n");
+        IndexCompiler.compile(folder.getRoot(), folder.file("metadata.idx"));
+        // only the index has them now
+        assertTrue(folder.file("bonds.quote.schema").delete());
+        assertTrue(folder.file("quote.schema").delete());
+
+        FileBasedProvider provider = folder.provider("INDEX", "group_schemas", "Y", "index_file", "metadata.idx");
+        for (int j = 0; j < 2; j++) {
+            assertArrayEquals(OVERRIDE, provider.getSchema("user", "bonds", "quote"));
+            assertArrayEquals(BASE, provider.getSchema("user", "stocks", "quote"));
+        }
+    }
+
+    @Test
+    public void combinesTheIndexWithTheDirectory() throws Exception {
+        IndexCompiler.compile(folder.getRoot(), folder.file("metadata.idx"));
+        // an override out of the index is still found in the directory
+        folder.write("bonds.quote.schema", "bid\nask\ntime\n");
+
+        FileBasedProvider provider = folder.provider("INDEX", "group_schemas", "Y", "index_file", "metadata.idx");
+        assertArrayEquals(OVERRIDE, provider.getSchema("user", "bonds", "quote"));
+        assertArrayEquals(BASE, provider.getSchema("user", "stocks", "quote"));
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.ItemsException;
+
+/**
+ * Tests for the composite Item Groups of FileBasedProvider.
+ */
+public class FileBasedProviderIncludesTest {
+
+    private static final String[] MODES = new String[] { "N", "Y", "CHECK", "WATCH" };
+
+    @Rule
+    public final MetadataFolder folder = new MetadataFolder();
+
+    private static void assertCycle(FileBasedProvider provider, String group, String cycle) {
+        try {
+            provider.getItems("user", group);
+            fail("accepted " + group);
+        } catch (ItemsException e) {
+            assertEquals("include cycle: " + cycle, e.getMessage());
+        }
+    }
+
+    @Test
+    public void resolvesNestedIncludes() throws Exception {
+        folder.write("top.items", "t1\n#include middle\nt2\n");
+        folder.write("middle.items", "m1\n#include bottom\n");
+        folder.write("bottom.items", "b1\nb2\n");
+        for (int i = 0; i < MODES.length; i++) {
+            FileBasedProvider provider = folder.provider(MODES[i], "group_includes", "Y");
+            assertArrayEquals(MODES[i], new String[] { "t1", "m1", "b1", "b2", "t2" }, provider.getItems("user", "top"));
+            assertArrayEquals(MODES[i], new String[] { "b1", "b2" }, provider.getItems("user", "bottom"));
+        }
+    }
+
+    @Test
+    public void refusesCycles() throws Exception {
+        folder.write("self.items", "s1\n#include self\n");
+        folder.write("a.items", "a1\n#include b\n");
+        folder.write("b.items", "b1\n#include c\n");
+        folder.write("c.items", "#include a\nc1\n");
+        folder.write("entry.items", "#include b\n");
+        for (int i = 0; i < MODES.length; i++) {
+            FileBasedProvider provider = folder.provider(MODES[i], "group_includes", "Y");
+            assertCycle(provider, "self", "self -> self");
+            assertCycle(provider, "a", "a -> b -> c -> a");
+            assertCycle(provider, "entry", "b -> c -> a -> b");
+        }
+    }
+
+    @Test
+    public void keepsDiamondItemsOnce() throws Exception {
+        folder.write("top.items", "t1\nb2\n#include left\n#include right\n");
+        folder.write("left.items", "l1\n#include base\n");
+        folder.write("right.items", "#include base\nr1\n");
+        folder.write("base.items", "b1\nb2\n");
+        for (int i = 0; i < MODES.length; i++) {
+            FileBasedProvider provider = folder.provider(MODES[i], "group_includes", "Y");
+            assertArrayEquals(MODES[i], new String[] { "t1", "b2", "l1", "b1", "r1" }, provider.getItems("user", "top"));
+        }
+    }
+
+    @Test
+    public void keepsTheListedItemsAsTheyAre() throws Exception {
+        folder.write("plain.items", "p1\np2\np1\n");
+        folder.write("composite.items", "p1\np2\np1\n#include other\n");
+        folder.write("other.items", "p2\no1\no1\n");
+        for (int i = 0; i < MODES.length; i++) {
+            FileBasedProvider provider = folder.provider(MODES[i], "group_includes", "Y");
+            assertArrayEquals(MODES[i], new String[] { "p1", "p2", "p1" }, provider.getItems("user", "plain"));
+            assertArrayEquals(MODES[i], new String[] { "p1", "p2", "p1", "o1" }, provider.getItems("user", "composite"));
+        }
+    }
+
+    @Test
+    public void dropsIncludedItemsListedLater() throws Exception {
+        folder.write("top.items", "#include base\nt1\nb2\n");
+        folder.write("base.items", "b1\nb2\n");
+        for (int i = 0; i < MODES.length; i++) {
+            FileBasedProvider provider = folder.provider(MODES[i], "group_includes", "Y");
+            assertArrayEquals(MODES[i], new String[] { "b1", "t1", "b2" }, provider.getItems("user", "top"));
+        }
+    }
+
+    @Test
+    public void reportsMissingIncludedGroups() throws Exception {
+        folder.write("top.items", "t1\n#include missing\n");
+        for (int i = 0; i < MODES.length; i++) {
+            try {
+                folder.provider(MODES[i], "group_includes", "Y").getItems("user", "top");
+                fail(MODES[i]);
+            } catch (ItemsException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("missing.items"));
+            }
+        }
+    }
+
+    @Test
+    public void followsChangesOfIncludedGroups() throws Exception {
+        folder.write("top.items", "t1\n#include base\n");
+        folder.write("base.items", "b1\n");
+        FileBasedProvider provider = folder.provider("CHECK", "group_includes", "Y");
+        assertArrayEquals(new String[] { "t1", "b1" }, provider.getItems("user", "top"));
+
+        // a different size is enough for the check to notice
+        folder.write("base.items", "b1\nb2\n");
+        assertArrayEquals(new String[] { "t1", "b1", "b2" }, provider.getItems("user", "top"));
+    }
+
+    @Test
+    public void directivesAreCommentsByDefault() throws Exception {
+        folder.write("top.items", "t1\n#include base\n");
+        folder.write("base.items", "b1\n");
+        assertArrayEquals(new String[] { "t1" }, folder.provider("N").getItems("user", "top"));
+    }
+
+    @Test
+    public void indexCompilerRefusesDirectives() throws Exception {
+        folder.write("top.items", "t1\n#include base\n");
+        folder.write("base.items", "b1\n");
+        File index = folder.file("metadata.idx");
+        try {
+            IndexCompiler.compile(folder.getRoot(), index, true);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("top.items"));
+        }
+        assertFalse(index.exists());
+    }
+
+    @Test
+    public void indexCompilerTakesDirectivesAsCommentsByDefault() throws Exception {
+        folder.write("top.items", "t1\n#include base\n");
+        folder.write("base.items", "b1\n");
+        File index = folder.file("metadata.idx");
+        IndexCompiler.compile(folder.getRoot(), index);
+        MappedIndex mapped = new MappedIndex(index, new NamePool(100), 0);
+        assertArrayEquals(new String[] { "t1" }, mapped.getItems("top"));
+    }
+
+}
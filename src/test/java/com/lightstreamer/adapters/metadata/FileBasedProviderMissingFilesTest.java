@@ -0,0 +1,105 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static com.lightstreamer.adapters.metadata.MetadataFolder.assertItemsEventually;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.ItemsException;
+
+/**
+ * Tests for the files remembered as missing by FileBasedProvider.
+ */
+public class FileBasedProviderMissingFilesTest {
+
+    private static final String[] MODES = new String[] { "N", "Y", "CHECK", "PRELOAD" };
+
+    @Rule
+    public final MetadataFolder folder = new MetadataFolder();
+
+    private FileBasedProvider provider(String mode, long missingMillis) throws Exception {
+        return folder.provider(mode, "missing_file_millis", String.valueOf(missingMillis));
+    }
+
+    private static void assertMissing(FileBasedProvider provider, String group) {
+        try {
+            provider.getItems("user", group);
+            fail("found " + group);
+        } catch (ItemsException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(group + ".items"));
+        }
+    }
+
+    @Test
+    public void remembersMissingFiles() throws Exception {
+        for (int i = 0; i < MODES.length; i++) {
+            String group = "group" + i;
+            FileBasedProvider provider = provider(MODES[i], 60000);
+            assertMissing(provider, group);
+            folder.write(group + ".items", "item1\n");
+            // still taken as missing, without looking at the disk
+            assertMissing(provider, group);
+            // but not by a provider that has never looked for it
+            assertArrayEquals(MODES[i], new String[] { "item1" }, provider(MODES[i], 60000).getItems("user", group));
+        }
+    }
+
+    @Test
+    public void forgetsMissingFilesWhenExpired() throws Exception {
+        for (int i = 0; i < MODES.length; i++) {
+            String group = "group" + i;
+            FileBasedProvider provider = provider(MODES[i], 50);
+            assertMissing(provider, group);
+            folder.write(group + ".items", "item1\n");
+            assertItemsEventually(provider, group, new String[] { "item1" });
+        }
+    }
+
+    @Test
+    public void doesNotRememberFilesThatCannotBeOpened() throws Exception {
+        for (int i = 0; i < MODES.length; i++) {
+            String group = "group" + i;
+            // a directory exists, but cannot be opened as a file
+            File blocker = folder.file(group + ".items");
+            assertTrue(blocker.mkdir());
+            FileBasedProvider provider = provider(MODES[i], 60000);
+            assertMissing(provider, group);
+            assertTrue(blocker.delete());
+            folder.write(group + ".items", "item1\n");
+            assertArrayEquals(MODES[i], new String[] { "item1" }, provider.getItems("user", group));
+        }
+    }
+
+    @Test
+    public void forgetsMissingFilesWhenCreatedWithWatch() throws Exception {
+        FileBasedProvider provider = provider("WATCH", 60000);
+        assertMissing(provider, "group");
+        folder.write("group.items", "item1\n");
+        // the watcher gets the event asynchronously
+        assertItemsEventually(provider, "group", new String[] { "item1" });
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+package com.lightstreamer.adapters.metadata;
+
+import static com.lightstreamer.adapters.metadata.MetadataFolder.assertItemsEventually;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.ItemsException;
+
+/**
+ * Tests for the preloaded files of FileBasedProvider.
+ */
+public class FileBasedProviderPreloadTest {
+
+    private static final int FILES = 20;
+
+    @Rule
+    public final MetadataFolder folder = new MetadataFolder();
+
+    private void writeGroups() throws Exception {
+        for (int i = 0; i < FILES; i++) {
+            folder.write("group" + i + ".items", "item" + i + "\nshared\n");
+        }
+        folder.write("quote.schema", "last\ntime\n");
+    }
+
+    private static void assertGroups(FileBasedProvider provider, int from) throws Exception {
+        for (int i = from; i < FILES; i++) {
+            assertArrayEquals(new String[] { "item" + i, "shared" }, provider.getItems("user", "group" + i));
+        }
+    }
+
+    @Test
+    public void loadsAllFilesInParallel() throws Exception {
+        writeGroups();
+        FileBasedProvider provider = folder.provider("PRELOAD", "preload_threads", "4");
+        // no longer needed once loaded
+        for (int i = 0; i < FILES; i++) {
+            assertTrue(folder.file("group" + i + ".items").delete());
+        }
+        assertGroups(provider, 0);
+        assertArrayEquals(new String[] { "last", "time" }, provider.getSchema("user", "any", "quote"));
+        // the names are shared among the files
+        assertSame(provider.getItems("user", "group0")[1], provider.getItems("user", "group1")[1]);
+    }
+
+    @Test
+    public void followsChangesUponReloads() throws Exception {
+        writeGroups();
+        FileBasedProvider provider = folder.provider("PRELOAD", "preload_threads", "4", "reload_millis", "100");
+        assertGroups(provider, 0);
+
+        assertTrue(folder.file("group1.items").delete());
+        folder.write("added.items", "added\n");
+        folder.write("quote.schema", "bid\nask\ntime\n");
+        // changed last, so that the reload that takes it also takes the others
+        folder.write("group0.items", "changed\n");
+
+        assertItemsEventually(provider, "group0", new String[] { "changed" });
+        try {
+            provider.getItems("user", "group1");
+            fail("found group1");
+        } catch (ItemsException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("group1.items"));
+        }
+        assertArrayEquals(new String[] { "added" }, provider.getItems("user", "added"));
+        assertArrayEquals(new String[] { "bid", "ask", "time" }, provider.getSchema("user", "any", "quote"));
+        assertGroups(provider, 2);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+package com.lightstreamer.adapters.metadata;
+
+import static com.lightstreamer.adapters.metadata.MetadataFolder.assertItemsEventually;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.ItemsException;
+
+/**
+ * Tests for the directory watcher of FileBasedProvider.
+ */
+public class FileBasedProviderWatchTest {
+
+    @Rule
+    public final MetadataFolder folder = new MetadataFolder();
+
+    private static void assertMissing(FileBasedProvider provider, String group) {
+        try {
+            provider.getItems("user", group);
+            fail("found " + group);
+        } catch (ItemsException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(group + ".items"));
+        }
+    }
+
+    @Test
+    public void servesTheChangedFiles() throws Exception {
+        folder.write("group.items", "item1\n");
+        FileBasedProvider provider = folder.provider("WATCH");
+        assertArrayEquals(new String[] { "item1" }, provider.getItems("user", "group"));
+
+        folder.write("group.items", "item1\nitem2\n");
+        // the watcher gets the event asynchronously
+        assertItemsEventually(provider, "group", new String[] { "item1", "item2" });
+
+        folder.write("group.items", "item3\n");
+        assertItemsEventually(provider, "group", new String[] { "item3" });
+
+        assertTrue(folder.file("group.items").delete());
+        // and then reported as missing
+        assertItemsEventually(provider, "group", null);
+    }
+
+    @Test
+    public void checksAllFilesUponOverflow() throws Exception {
+        folder.write("changed.items", "item1\n");
+        folder.write("unchanged.items", "item1\n");
+        folder.write("quote.schema", "last\ntime\n");
+        // with "Y", nothing else would notice the changes
+        FileBasedProvider provider = folder.provider("Y",
+                "group_schemas", "Y", "missing_file_millis", "60000");
+        String[] unchanged = provider.getItems("user", "unchanged");
+        assertArrayEquals(new String[] { "item1" }, provider.getItems("user", "changed"));
+        assertArrayEquals(new String[] { "last", "time" }, provider.getSchema("user", "bonds", "quote"));
+        assertMissing(provider, "missing");
+
+        folder.write("changed.items", "item1\nitem2\n");
+        folder.write("bonds.quote.schema", "bid\nask\ntime\n");
+        folder.write("missing.items", "item3\n");
+        assertArrayEquals(new String[] { "item1" }, provider.getItems("user", "changed"));
+
+        provider.overflow();
+        assertArrayEquals(new String[] { "item1", "item2" }, provider.getItems("user", "changed"));
+        assertSame(unchanged, provider.getItems("user", "unchanged"));
+        assertArrayEquals(new String[] { "bid", "ask", "time" }, provider.getSchema("user", "bonds", "quote"));
+        assertArrayEquals(new String[] { "item3" }, provider.getItems("user", "missing"));
+    }
+
+}
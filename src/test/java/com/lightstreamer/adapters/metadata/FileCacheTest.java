@@ -0,0 +1,333 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for FileCache.
+ */
+public class FileCacheTest {
+
+    @Rule
+    public final MetadataFolder folder = new MetadataFolder();
+
+    /**
+     * A pool that stops the first load, which interns the names,
+     * until it is let go.
+     */
+    private static class BlockingPool extends NamePool {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch proceed = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private BlockingPool() {
+            super(100);
+        }
+
+        void internAll(String[] list) {
+            if (calls.incrementAndGet() == 1) {
+                entered.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.internAll(list);
+        }
+    }
+
+    private static void awaitWaiting(Thread[] threads) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        for (int i = 0; i < threads.length; i++) {
+            while (threads[i].getState() != Thread.State.WAITING) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("thread " + threads[i].getName() + " is " + threads[i].getState());
+                }
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    @Test
+    public void concurrentMissesShareOneRead() throws Exception {
+        folder.write("group.items", "item1\nitem2\n");
+        BlockingPool pool = new BlockingPool();
+        final FileCache cache = new FileCache(folder.getRoot(), pool, 0, 0, FileCache.LRU, null, false);
+
+        final FileCache.Entry[] loaded = new FileCache.Entry[5];
+        Thread[] threads = new Thread[loaded.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread("loader " + i) {
+                public void run() {
+                    try {
+                        loaded[n] = cache.load("group.items");
+                    } catch (IOException e) {
+                        // left null
+                    }
+                }
+            };
+        }
+
+        threads[0].start();
+        pool.entered.await();
+        Thread[] waiters = new Thread[threads.length - 1];
+        for (int i = 1; i < threads.length; i++) {
+            threads[i].start();
+            waiters[i - 1] = threads[i];
+        }
+        // they wait for the read in progress rather than reading
+        awaitWaiting(waiters);
+        pool.proceed.countDown();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        assertEquals(1, pool.calls.get());
+        assertArrayEquals(new String[] { "item1", "item2" }, loaded[0].contents);
+        for (int i = 1; i < loaded.length; i++) {
+            assertSame(loaded[0], loaded[i]);
+        }
+        assertSame(loaded[0], cache.peek("group.items"));
+        assertEquals(1, cache.getEntries());
+    }
+
+    @Test
+    public void missingFilesAreNotCached() throws IOException {
+        FileCache cache = new FileCache(folder.getRoot(), new NamePool(100), 0, 0, FileCache.LRU, null, false);
+        try {
+            cache.load("missing.items");
+            fail();
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        assertNull(cache.peek("missing.items"));
+        assertEquals(0, cache.getEntries());
+
+        // nothing is left behind that prevents a new read
+        folder.write("missing.items", "item\n");
+        assertArrayEquals(new String[] { "item" }, cache.load("missing.items").contents);
+    }
+
+    @Test
+    public void discardedFilesAreReadAgain() throws IOException {
+        folder.write("group.items", "item1\n");
+        FileCache cache = new FileCache(folder.getRoot(), new NamePool(100), 0, 0, FileCache.LRU, null, false);
+        FileCache.Entry first = cache.load("group.items");
+        folder.write("group.items", "item2\n");
+        cache.discard("group.items");
+        assertNull(cache.peek("group.items"));
+        FileCache.Entry second = cache.load("group.items");
+        assertArrayEquals(new String[] { "item2" }, second.contents);
+        assertTrue(first != second);
+        assertEquals(2, cache.getMisses());
+    }
+
+    private FileCache filled(int maxEntries, long maxBytes, String policy, int count) throws IOException {
+        FileCache cache = new FileCache(folder.getRoot(), new NamePool(100), maxEntries, maxBytes, policy, null, false);
+        for (int i = 0; i < count; i++) {
+            folder.write("g" + i + ".items", "item" + i + "\n");
+            cache.load("g" + i + ".items");
+        }
+        return cache;
+    }
+
+    @Test
+    public void lruEvictsTheLeastRecentlyAccessed() throws IOException {
+        FileCache cache = filled(4, 0, FileCache.LRU, 4);
+        // the access times are set explicitly, as they have a coarse granularity
+        cache.peek("g0.items").lastAccess = 4000;
+        cache.peek("g1.items").lastAccess = 1000;
+        cache.peek("g2.items").lastAccess = 3000;
+        cache.peek("g3.items").lastAccess = 2000;
+
+        folder.write("g4.items", "item4\n");
+        cache.load("g4.items");
+
+        // down to 90% of the limit
+        assertEquals(3, cache.getEntries());
+        assertEquals(2, cache.getEvictions());
+        assertNull(cache.peek("g1.items"));
+        assertNull(cache.peek("g3.items"));
+        assertTrue(cache.peek("g0.items") != null);
+        assertTrue(cache.peek("g2.items") != null);
+        assertTrue(cache.peek("g4.items") != null);
+    }
+
+    @Test
+    public void lfuEvictsTheLeastFrequentlyAccessed() throws IOException {
+        FileCache cache = filled(4, 0, FileCache.LFU, 4);
+        int[] accesses = new int[] { 1, 8, 2, 5 };
+        for (int i = 0; i < accesses.length; i++) {
+            FileCache.Entry entry = cache.peek("g" + i + ".items");
+            for (int j = 0; j < accesses[i]; j++) {
+                cache.hit(entry);
+            }
+        }
+
+        folder.write("g4.items", "item4\n");
+        cache.load("g4.items");
+
+        // the new file has no accesses yet, but it is kept anyway
+        assertEquals(3, cache.getEntries());
+        assertNull(cache.peek("g0.items"));
+        assertNull(cache.peek("g2.items"));
+        assertEquals(4, cache.peek("g1.items").accesses);
+        assertTrue(cache.peek("g3.items") != null);
+        assertTrue(cache.peek("g4.items") != null);
+    }
+
+    @Test
+    public void occupationStaysWithinTheByteLimit() throws IOException {
+        long perFile = FileCache.estimateBytes(new String[] { "item0" });
+        long maxBytes = perFile * 10;
+        FileCache cache = filled(0, maxBytes, FileCache.LRU, 50);
+        assertTrue(cache.getBytes() <= maxBytes);
+        assertTrue(cache.getEntries() > 0);
+        assertEquals(50, cache.getEntries() + cache.getEvictions());
+    }
+
+    @Test
+    public void newHotFilesEnterAFullLfuCache() throws IOException {
+        FileCache cache = filled(4, 0, FileCache.LFU, 4);
+        for (int i = 0; i < 4; i++) {
+            FileCache.Entry entry = cache.peek("g" + i + ".items");
+            for (int j = 0; j < 100; j++) {
+                cache.hit(entry);
+            }
+        }
+        for (int round = 0; round < 3; round++) {
+            String fileName = "hot" + round + ".items";
+            folder.write(fileName, "hot\n");
+            FileCache.Entry entry = cache.load(fileName);
+            assertTrue(cache.peek(fileName) == entry);
+            for (int j = 0; j < 1000; j++) {
+                cache.hit(entry);
+            }
+        }
+        assertTrue(cache.peek("hot2.items") != null);
+        assertTrue(cache.peek("hot1.items") != null);
+    }
+
+    @Test
+    public void aNewFileOverTheByteLimitIsNotKept() throws IOException {
+        long perFile = FileCache.estimateBytes(new String[] { "item0" });
+        FileCache cache = new FileCache(folder.getRoot(), new NamePool(100), 0, perFile, FileCache.LFU, null, false);
+        folder.write("big.items", "item0\nitem1\nitem2\n");
+        assertArrayEquals(new String[] { "item0", "item1", "item2" }, cache.load("big.items").contents);
+        assertNull(cache.peek("big.items"));
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void noLimitsNoEvictions() throws IOException {
+        FileCache cache = filled(0, 0, FileCache.LRU, 50);
+        assertEquals(50, cache.getEntries());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    /**
+     * Waits for the refresher to replace the cached contents of a file.
+     */
+    private static FileCache.Entry awaitRefreshed(FileCache cache, String fileName, FileCache.Entry old)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + MetadataFolder.TIMEOUT_MILLIS;
+        while (true) {
+            FileCache.Entry entry = cache.peek(fileName);
+            if (entry != null && entry != old) {
+                return entry;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail(fileName + " not refreshed");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void refreshesFilesInUseAhead() throws Exception {
+        folder.write("changed.items", "item1\n");
+        folder.write("unchanged.items", "item1\n");
+        FileCache cache = new FileCache(folder.getRoot(), new NamePool(100), 0, 0, FileCache.LRU, null, false);
+        FileCache.Entry changed = cache.load("changed.items");
+        FileCache.Entry unchanged = cache.load("unchanged.items");
+        long loaded = unchanged.lastCheck;
+
+        // a different size is enough for the check to notice
+        folder.write("changed.items", "item1\nitem2\n");
+        cache.startRefresher(200, 50, 1);
+
+        // reloaded with no request involved
+        FileCache.Entry refreshed = awaitRefreshed(cache, "changed.items", changed);
+        assertArrayEquals(new String[] { "item1", "item2" }, refreshed.contents);
+        // and the file found unchanged is kept, as just checked
+        long deadline = System.currentTimeMillis() + MetadataFolder.TIMEOUT_MILLIS;
+        while (unchanged.lastCheck == loaded) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("unchanged.items not checked");
+            }
+            Thread.sleep(10);
+        }
+        assertSame(unchanged, cache.peek("unchanged.items"));
+    }
+
+    @Test
+    public void skipsFilesNotInUse() throws Exception {
+        folder.write("idle.items", "item1\n");
+        folder.write("used.items", "item1\n");
+        FileCache cache = new FileCache(folder.getRoot(), new NamePool(100), 0, 0, FileCache.LRU, null, false);
+        FileCache.Entry idle = cache.load("idle.items");
+        // not accessed since the last check; set explicitly,
+        // as the access times have a coarse granularity
+        idle.lastAccess = idle.lastCheck - 1;
+        long checked = idle.lastCheck;
+        // loaded later, hence not due before the idle file
+        FileCache.Entry used = cache.load("used.items");
+
+        folder.write("idle.items", "item1\nitem2\n");
+        folder.write("used.items", "item1\nitem2\n");
+        cache.startRefresher(200, 50, 1);
+
+        // once the file in use is reloaded, the scan has gone past the idle one
+        awaitRefreshed(cache, "used.items", used);
+        assertSame(idle, cache.peek("idle.items"));
+        assertEquals(checked, idle.lastCheck);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesUnknownPolicies() {
+        new FileCache(folder.getRoot(), new NamePool(100), 10, 0, "MRU", null, false);
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Tests for ItemFamilyMatcher, against the plain evaluation of the
+ * patterns in order.
+ */
+public class ItemFamilyMatcherTest {
+
+    private static int firstMatch(Pattern[] patterns, String name) {
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i].matcher(name).matches()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Pattern[] compile(String... sources) {
+        Pattern[] patterns = new Pattern[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            patterns[i] = Pattern.compile(sources[i]);
+        }
+        return patterns;
+    }
+
+    private static void assertSameAsSequential(Pattern[] patterns, String... names) {
+        ItemFamilyMatcher matcher = new ItemFamilyMatcher(patterns);
+        for (int i = 0; i < names.length; i++) {
+            assertEquals("name " + names[i], firstMatch(patterns, names[i]), matcher.match(names[i]));
+        }
+    }
+
+    @Test
+    public void earlierPatternsWinWhateverTheirKind() {
+        Pattern[] patterns = compile("item_[0-9]+", "item_.*", "item_1", "item_1.*", ".*");
+        assertSameAsSequential(patterns, "item_1", "item_12", "item_x", "item_", "other", "");
+        assertEquals(0, new ItemFamilyMatcher(patterns).match("item_1"));
+        assertEquals(1, new ItemFamilyMatcher(patterns).match("item_x"));
+    }
+
+    @Test
+    public void literalsAndPrefixesBehindGenericPatterns() {
+        Pattern[] patterns = compile("a.*", "ab", "abc.*", "x\\.y", "x\\..*", "q[a-z]");
+        assertSameAsSequential(patterns, "a", "ab", "abc", "abcd", "x.y", "x.yz", "xzy", "qa", "q1", "b");
+        assertEquals(-1, new ItemFamilyMatcher(patterns).match("b"));
+    }
+
+    @Test
+    public void prefixesDoNotMatchLineTerminators() {
+        Pattern[] patterns = compile("item.*", "item\\n.*");
+        assertSameAsSequential(patterns, "item", "item1", "item\n", "item\nx", "item\r", "item ", "it");
+    }
+
+    @Test
+    public void specialPatternsAreEvaluatedAlone() {
+        Pattern[] patterns = new Pattern[] {
+            Pattern.compile("(a)\\1"),
+            Pattern.compile("(?<name>b)\\k<name>"),
+            Pattern.compile("\\Q.*\\E"),
+            Pattern.compile("item", Pattern.CASE_INSENSITIVE),
+            Pattern.compile("(c+)(d?)"),
+            Pattern.compile("(e)|(f)"),
+            Pattern.compile("g.*", Pattern.DOTALL),
+        };
+        assertSameAsSequential(patterns, "aa", "ab", "bb", ".*", "x", "ITEM", "Item", "item",
+                "ccd", "c", "e", "f", "ef", "g\nh", "g");
+    }
+
+    @Test
+    public void noPatterns() {
+        assertEquals(-1, new ItemFamilyMatcher(new Pattern[0]).match("item"));
+    }
+
+    @Test
+    public void randomNamesMatchAsSequential() {
+        Random random = new Random(42);
+        String[] pieces = new String[] { "a", "b", "ab", "1", "_", ".", "\\.", "[0-9]", "[ab]+", ".*", "(a|b)", "x?" };
+        String alphabet = "ab1_.x\n";
+        for (int round = 0; round < 200; round++) {
+            String[] sources = new String[1 + random.nextInt(12)];
+            for (int i = 0; i < sources.length; i++) {
+                StringBuilder source = new StringBuilder();
+                int length = 1 + random.nextInt(4);
+                for (int j = 0; j < length; j++) {
+                    source.append(pieces[random.nextInt(pieces.length)]);
+                }
+                if (random.nextBoolean()) {
+                    source.append(".*");
+                }
+                sources[i] = source.toString();
+            }
+            Pattern[] patterns = compile(sources);
+            String[] names = new String[50];
+            for (int i = 0; i < names.length; i++) {
+                StringBuilder name = new StringBuilder();
+                int length = random.nextInt(6);
+                for (int j = 0; j < length; j++) {
+                    name.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                names[i] = name.toString();
+            }
+            assertSameAsSequential(patterns, names);
+        }
+    }
+
+}
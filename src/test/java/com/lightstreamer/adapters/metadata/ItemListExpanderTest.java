@@ -0,0 +1,102 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests for ItemListExpander.
+ */
+public class ItemListExpanderTest {
+
+    private static String[] expand(int maxNames, String spec) {
+        return new ItemListExpander(maxNames).expand(spec.split(" "));
+    }
+
+    private static void assertRefused(int maxNames, String spec, String message) {
+        try {
+            expand(maxNames, spec);
+            fail("accepted " + spec);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void recognizesTheCompactSyntax() {
+        assertTrue(ItemListExpander.isCompact("item[1-2]"));
+        assertTrue(ItemListExpander.isCompact("a b{c,d}"));
+        assertFalse(ItemListExpander.isCompact("item1 item2"));
+    }
+
+    @Test
+    public void expandsRangesAndSets() {
+        assertArrayEquals(new String[] { "item1", "item2", "item3" }, expand(100, "item[1-3]"));
+        assertArrayEquals(new String[] { "item08", "item09", "item10" }, expand(100, "item[08-10]"));
+        assertArrayEquals(new String[] { "itemA", "itemB" }, expand(100, "item{A,B}"));
+        assertArrayEquals(new String[] { "a1x", "a2x", "b1x", "b2x" }, expand(100, "{a,b}[1-2]x"));
+        assertArrayEquals(new String[] { "item", "item_bid" }, expand(100, "item{,_bid}"));
+    }
+
+    @Test
+    public void keepsPlainNamesInPlace() {
+        assertArrayEquals(new String[] { "first", "s1", "s2", "last" }, expand(100, "first s[1-2] last"));
+    }
+
+    @Test
+    public void acceptsExactlyTheLimit() {
+        assertEquals(10, expand(10, "item[1-10]").length);
+        assertEquals(10, expand(10, "a b c item[1-7]").length);
+        assertEquals(10, expand(10, "{a,b}[1-5]").length);
+    }
+
+    @Test
+    public void refusesMoreThanTheLimit() {
+        assertRefused(10, "item[1-11]", "more than 10");
+        assertRefused(10, "a b c d item[1-7]", "more than 10");
+        assertRefused(10, "item[1-5] item[1-6]", "more than 10");
+        assertRefused(10, "{a,b,c}[1-4]", "more than 10");
+        assertRefused(10, "{a,b,c,d,e,f,g,h,i,j,k}", "more than 10");
+        assertRefused(3, "a b c d", "more than 3");
+    }
+
+    @Test
+    public void refusesHugeRangesWithoutExpandingThem() {
+        assertRefused(1000, "item[0-999999999999999999]", "more than 1000");
+        assertRefused(1000, "[1-1000][1-1000][1-1000]", "more than 1000");
+    }
+
+    @Test
+    public void refusesInvalidSyntax() {
+        assertRefused(100, "item[1-3", "unterminated [");
+        assertRefused(100, "item{a,b", "unterminated {");
+        assertRefused(100, "item[3-1]", "invalid range");
+        assertRefused(100, "item[a-z]", "invalid range");
+        assertRefused(100, "item[1]", "invalid range");
+        assertRefused(100, "item{a,{b}}", "nested set");
+        assertRefused(100, "{}", "empty Item name");
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    // the durations are measured from the supplied start to now,
+    // hence they are recorded somewhat longer than requested
+    private static void record(LatencyHistogram histogram, long micros, boolean ok) {
+        histogram.record(System.nanoTime() - micros * 1000, ok);
+    }
+
+    private static void assertAbout(String message, double expected, double actual) {
+        // within the bucket error and some slack for the measuring
+        assertTrue(message + ": " + actual, actual >= expected && actual <= expected * 1.25 + 100);
+    }
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getErrors());
+        assertEquals(0, histogram.getPercentileMicros(50), 0);
+        assertEquals(0, histogram.getMaxMicros(), 0);
+    }
+
+    @Test
+    public void estimatesPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            record(histogram, 1000, true);
+        }
+        record(histogram, 50000, true);
+        record(histogram, 200000, false);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getErrors());
+        assertAbout("p50", 1000, histogram.getPercentileMicros(50));
+        assertAbout("p99", 50000, histogram.getPercentileMicros(99));
+        assertAbout("p100", 200000, histogram.getPercentileMicros(100));
+        // the maximum is exact
+        assertTrue(histogram.getMaxMicros() >= 200000);
+        assertTrue(histogram.getMaxMicros() <= histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void countsConcurrentRecords() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        record(histogram, i % 100, i % 10 != 0);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertEquals(80000, histogram.getCount());
+        assertEquals(8000, histogram.getErrors());
+    }
+
+    @Test
+    public void measuresTheCurrentRate() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 500; i++) {
+            record(histogram, 1, true);
+        }
+        // measured since the creation, at least one second ago
+        Thread.sleep(1100);
+        double rate = histogram.getRate();
+        assertTrue("rate: " + rate, rate > 0 && rate <= 500);
+
+        // the calls before the second last sample are no longer counted
+        Thread.sleep(1100);
+        histogram.getRate();
+        Thread.sleep(1100);
+        assertEquals(0, histogram.getRate(), 0);
+    }
+
+    @Test
+    public void resetRestartsTheRecording() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        record(histogram, 1000, false);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getErrors());
+        assertEquals(0, histogram.getMaxMicros(), 0);
+        assertEquals(0, histogram.getRate(), 0);
+    }
+
+}
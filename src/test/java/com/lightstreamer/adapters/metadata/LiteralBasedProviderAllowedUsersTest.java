@@ -0,0 +1,123 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.AccessException;
+import com.lightstreamer.interfaces.metadata.MetadataProviderException;
+
+/**
+ * Tests for the file of User names of LiteralBasedProvider.
+ */
+public class LiteralBasedProviderAllowedUsersTest {
+
+    @Rule
+    public final MetadataFolder folder = new MetadataFolder();
+
+    private LiteralBasedProvider provider(String... params) throws Exception {
+        String[] all = new String[params.length + 4];
+        all[0] = "metrics";
+        all[1] = "N";
+        all[2] = "allowed_users_file";
+        all[3] = "users.txt";
+        System.arraycopy(params, 0, all, 4, params.length);
+        return folder.literal(all);
+    }
+
+    private static boolean isAllowed(LiteralBasedProvider provider, String user) throws Exception {
+        try {
+            provider.notifyUser(user, null);
+            return true;
+        } catch (AccessException e) {
+            return false;
+        }
+    }
+
+    private static void assertRefused(LiteralBasedProvider provider, String user) throws Exception {
+        assertTrue(user, !isAllowed(provider, user));
+    }
+
+    private void assertReportedAtStartup() throws Exception {
+        try {
+            provider();
+            fail();
+        } catch (MetadataProviderException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("allowed_users_file"));
+            assertTrue(e.getMessage(), e.getMessage().contains("users.txt"));
+        }
+    }
+
+    @Test
+    public void allowsTheListedUsersOnly() throws Exception {
+        folder.write("users.txt", "alice\n# a comment\n\n  bob  \n");
+        LiteralBasedProvider provider = provider("allowed_users", "admin");
+        provider.notifyUser("alice", null);
+        provider.notifyUser("bob", null);
+        // the parameter adds to the file
+        provider.notifyUser("admin", "any");
+        assertRefused(provider, "carol");
+        assertRefused(provider, "# a comment");
+    }
+
+    @Test
+    public void replacesTheListAfterTheCheckPeriod() throws Exception {
+        folder.write("users.txt", "alice\n");
+        LiteralBasedProvider provider = provider("allowed_users_check_millis", "50");
+        provider.notifyUser("alice", null);
+        assertRefused(provider, "carol");
+
+        folder.write("users.txt", "carol\ndave\n");
+        long deadline = System.currentTimeMillis() + MetadataFolder.TIMEOUT_MILLIS;
+        while (! isAllowed(provider, "carol")) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("users.txt not reloaded");
+            }
+            Thread.sleep(10);
+        }
+        provider.notifyUser("dave", null);
+        // replaced, not added to
+        assertRefused(provider, "alice");
+    }
+
+    @Test
+    public void keepsTheListWithoutChecks() throws Exception {
+        folder.write("users.txt", "alice\n");
+        LiteralBasedProvider provider = provider("allowed_users_check_millis", "0");
+        folder.write("users.txt", "carol\ndave\n");
+        provider.notifyUser("alice", null);
+        assertRefused(provider, "carol");
+    }
+
+    @Test
+    public void reportsAMissingFileAtStartup() throws Exception {
+        assertReportedAtStartup();
+    }
+
+    @Test
+    public void reportsAnUnreadableFileAtStartup() throws Exception {
+        // the file exists, but cannot be opened as a file
+        assertTrue(folder.file("users.txt").mkdir());
+        assertReportedAtStartup();
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.Mode;
+
+/**
+ * Tests for the per-family resource limits of LiteralBasedProvider.
+ */
+public class LiteralBasedProviderFamilyLimitsTest {
+
+    private static LiteralBasedProvider provider(String... params) throws Exception {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("metrics", "N");
+        map.put("max_frequency", "3");
+        map.put("buffer_size", "30");
+        map.put("prefilter_frequency", "300");
+        map.put("distinct_snapshot_length", "50");
+        map.put("item_family_1", "tick.*");
+        map.put("modes_for_item_family_1", "RAW");
+        map.put("item_family_2", "ref.*");
+        map.put("modes_for_item_family_2", "MERGE");
+        for (int i = 0; i < params.length; i += 2) {
+            map.put(params[i], params[i + 1]);
+        }
+        LiteralBasedProvider provider = new LiteralBasedProvider();
+        provider.init(map, new File("."));
+        return provider;
+    }
+
+    private static void assertLimits(LiteralBasedProvider provider, String item,
+            double maxFrequency, int bufferSize, double prefilterFrequency, int snapshotLength) {
+        assertEquals(item, maxFrequency, provider.getAllowedMaxItemFrequency("user", item), 0);
+        assertEquals(item, bufferSize, provider.getAllowedBufferSize("user", item));
+        assertEquals(item, prefilterFrequency, provider.getMinSourceFrequency(item), 0);
+        assertEquals(item, snapshotLength, provider.getDistinctSnapshotLength(item));
+    }
+
+    @Test
+    public void familyLimitsOverrideTheGlobalOnes() throws Exception {
+        LiteralBasedProvider provider = provider(
+                "max_frequency_for_item_family_1", "1",
+                "buffer_size_for_item_family_1", "5",
+                "prefilter_frequency_for_item_family_1", "10",
+                "distinct_snapshot_length_for_item_family_1", "20",
+                "buffer_size_for_item_family_2", "100");
+        // twice, to also get the remembered families
+        for (int i = 0; i < 2; i++) {
+            assertLimits(provider, "tick.EURUSD", 1, 5, 10, 20);
+            // only the supplied limits differ
+            assertLimits(provider, "ref.ISIN", 3, 100, 300, 50);
+            // no family
+            assertLimits(provider, "other", 3, 30, 300, 50);
+        }
+    }
+
+    @Test
+    public void globalLimitsWithoutFamilyLimits() throws Exception {
+        LiteralBasedProvider provider = provider();
+        assertLimits(provider, "tick.EURUSD", 3, 30, 300, 50);
+        assertLimits(provider, "ref.ISIN", 3, 30, 300, 50);
+        assertLimits(provider, "other", 3, 30, 300, 50);
+    }
+
+    private static int rememberedFamilies(LiteralBasedProvider provider) {
+        WarmStart state = new WarmStart();
+        provider.saveState(state);
+        return state.families.size();
+    }
+
+    @Test
+    public void remembersFamiliesByDefaultWithFamilyLimits() throws Exception {
+        LiteralBasedProvider provider = provider("max_frequency_for_item_family_1", "1");
+        provider.getAllowedMaxItemFrequency("user", "tick.EURUSD");
+        provider.getAllowedBufferSize("user", "ref.ISIN");
+        provider.getMinSourceFrequency("other");
+        assertEquals(3, rememberedFamilies(provider));
+    }
+
+    @Test
+    public void remembersNothingWhenDisabled() throws Exception {
+        LiteralBasedProvider provider = provider("max_frequency_for_item_family_1", "1", "family_cache_size", "0");
+        assertEquals(1, provider.getAllowedMaxItemFrequency("user", "tick.EURUSD"), 0);
+        assertEquals(0, rememberedFamilies(provider));
+
+        // nor without family limits, unless requested
+        provider = provider();
+        provider.getAllowedMaxItemFrequency("user", "tick.EURUSD");
+        assertTrue(provider.modeMayBeAllowed("tick.EURUSD", Mode.RAW));
+        assertEquals(0, rememberedFamilies(provider));
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import org.junit.Test;
+
+/**
+ * Tests the splitting of Item and Field Lists by LiteralBasedProvider
+ * against the StringTokenizer it replaced.
+ */
+public class LiteralBasedProviderTokenizeTest {
+
+    private static String[] tokenizer(String str) {
+        StringTokenizer source = new StringTokenizer(str, " ");
+        List<String> tokens = new ArrayList<String>();
+        while (source.hasMoreTokens()) {
+            tokens.add(source.nextToken());
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    private static LiteralBasedProvider provider(boolean cached) throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        if (cached) {
+            params.put("list_cache_size", "100");
+        }
+        LiteralBasedProvider provider = new LiteralBasedProvider();
+        provider.init(params, new File("."));
+        return provider;
+    }
+
+    private static void assertSameAsTokenizer(LiteralBasedProvider provider, String str) throws Exception {
+        String[] expected = tokenizer(str);
+        assertArrayEquals("[" + str + "]", expected, provider.getItems("user", str));
+        assertArrayEquals("[" + str + "]", expected, provider.getSchema("user", "group", str));
+    }
+
+    @Test
+    public void edgeCases() throws Exception {
+        String[] cases = new String[] {
+            "", " ", "     ", "a", " a", "a ", "  a  ", "a b", "a  b", "  a   b  c ",
+            "a\tb", "\t", "a\nb c", "item1 item2 item3",
+            "x x x x x x x x x x x x x x x x x x x x x x x x x x x x x x x x x x x x x x",
+        };
+        LiteralBasedProvider provider = provider(false);
+        for (int i = 0; i < cases.length; i++) {
+            assertSameAsTokenizer(provider, cases[i]);
+        }
+    }
+
+    @Test
+    public void randomStrings() throws Exception {
+        LiteralBasedProvider plain = provider(false);
+        LiteralBasedProvider cached = provider(true);
+        Random random = new Random(7);
+        String alphabet = "   ab\t_1";
+        for (int round = 0; round < 20000; round++) {
+            StringBuilder str = new StringBuilder();
+            int length = random.nextInt(round % 10 == 0 ? 200 : 20);
+            for (int i = 0; i < length; i++) {
+                str.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameAsTokenizer(plain, str.toString());
+            // twice, to also get the remembered outcome
+            assertSameAsTokenizer(cached, str.toString());
+            assertSameAsTokenizer(cached, str.toString());
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests for the index files written by IndexCompiler and read by MappedIndex.
+ */
+public class MappedIndexTest {
+
+    @Rule
+    public final MetadataFolder folder = new MetadataFolder();
+
+    private File index;
+
+    @Before
+    public void writeFiles() throws IOException {
+        index = folder.file("metadata.idx");
+        folder.write("stocks.items", "item1\nitem2\n# comment\n\nitem3\n");
+        folder.write("more.items", "  item3  \nitem4\r\nitem1\n");
+        folder.write("empty.items", "");
+        folder.write("città.items", "città\n日本語\n");
+        folder.write("quote.schema", "last_price\ntime\npct_change\n");
+        folder.write("short.schema", "# nothing but a comment\ntime\n");
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertSameAsFiles(MappedIndex mapped) throws IOException {
+        File[] files = folder.getRoot().listFiles();
+        int groups = 0;
+        int schemas = 0;
+        for (int i = 0; i < files.length; i++) {
+            String fileName = files[i].getName();
+            if (fileName.endsWith(".items")) {
+                String group = fileName.substring(0, fileName.length() - 6);
+                assertArrayEquals(group, NameFileReader.read(files[i]), mapped.getItems(group));
+                groups++;
+            } else if (fileName.endsWith(".schema")) {
+                String schema = fileName.substring(0, fileName.length() - 7);
+                assertArrayEquals(schema, NameFileReader.read(files[i]), mapped.getSchema(schema));
+                schemas++;
+            }
+        }
+        assertEquals(groups, mapped.getGroupCount());
+        assertEquals(schemas, mapped.getSchemaCount());
+    }
+
+    private void assertRefused(String message) {
+        try {
+            new MappedIndex(index, new NamePool(100), 0);
+            fail(message);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        IndexCompiler.compile(folder.getRoot(), index);
+        assertSameAsFiles(new MappedIndex(index, new NamePool(100), 0));
+        MappedIndex cached = new MappedIndex(index, new NamePool(100), 10);
+        assertSameAsFiles(cached);
+        // twice, to also get the decoded lists
+        assertSameAsFiles(cached);
+        assertSame(cached.getItems("stocks"), cached.getItems("stocks"));
+
+        MappedIndex mapped = new MappedIndex(index, new NamePool(100), 0);
+        assertNull(mapped.getItems("missing"));
+        assertNull(mapped.getSchema("missing"));
+        // the sections are distinct
+        assertNull(mapped.getSchema("stocks"));
+        assertNull(mapped.getItems("quote"));
+    }
+
+    @Test
+    public void sharesTheNames() throws Exception {
+        IndexCompiler.compile(folder.getRoot(), index);
+        MappedIndex mapped = new MappedIndex(index, new NamePool(100), 0);
+        assertSame(mapped.getItems("stocks")[0], mapped.getItems("more")[2]);
+        assertSame(mapped.getItems("stocks")[2], mapped.getItems("more")[0]);
+    }
+
+    @Test
+    public void refusesTruncatedFiles() throws Exception {
+        IndexCompiler.compile(folder.getRoot(), index);
+        byte[] bytes = Files.readAllBytes(index.toPath());
+        for (int len = 0; len < bytes.length; len++) {
+            write(index, Arrays.copyOf(bytes, len));
+            assertRefused("truncated to " + len);
+        }
+        // and trailing garbage
+        write(index, Arrays.copyOf(bytes, bytes.length + 1));
+        assertRefused("extended");
+    }
+
+    @Test
+    public void refusesBadMagicAndVersion() throws Exception {
+        IndexCompiler.compile(folder.getRoot(), index);
+        byte[] bytes = Files.readAllBytes(index.toPath());
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 1;
+        write(index, badMagic);
+        assertRefused("bad magic");
+
+        byte[] badVersion = bytes.clone();
+        badVersion[7] = (byte) (MappedIndex.VERSION + 1);
+        write(index, badVersion);
+        assertRefused("bad version");
+    }
+
+    @Test
+    public void refusesCorruptedCounts() throws Exception {
+        IndexCompiler.compile(folder.getRoot(), index);
+        byte[] bytes = Files.readAllBytes(index.toPath());
+        // the string count, set to a huge and to a negative value
+        byte[][] counts = new byte[][] { { 0x7F, -1, -1, -1 }, { -1, -1, -1, -2 } };
+        for (int i = 0; i < counts.length; i++) {
+            byte[] bad = bytes.clone();
+            System.arraycopy(counts[i], 0, bad, 8, 4);
+            write(index, bad);
+            assertRefused("bad count " + i);
+        }
+    }
+
+    @Test
+    public void refusesIncludesWhenMeantForGroupIncludes() throws Exception {
+        IndexCompiler.compile(folder.getRoot(), index);
+        byte[] before = Files.readAllBytes(index.toPath());
+        folder.write("composite.items", "item5\n#include stocks\n");
+        try {
+            IndexCompiler.compile(folder.getRoot(), index, true);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("composite.items"));
+        }
+        // the previous index is left as it was
+        assertArrayEquals(before, Files.readAllBytes(index.toPath()));
+        assertFalse(folder.file("metadata.idx.tmp").exists());
+
+        // but the lines are comments otherwise
+        IndexCompiler.compile(folder.getRoot(), index);
+        MappedIndex mapped = new MappedIndex(index, new NamePool(100), 0);
+        assertArrayEquals(new String[] { "item5" }, mapped.getItems("composite"));
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.rules.TemporaryFolder;
+
+import com.lightstreamer.interfaces.metadata.ItemsException;
+import com.lightstreamer.interfaces.metadata.SchemaException;
+
+/**
+ * A temporary folder for the files of a test, with the providers
+ * configured on it.
+ * The providers are stopped before the folder is deleted, as their
+ * watchers, checkers and reloaders would complain about the deleted
+ * files otherwise.
+ */
+class MetadataFolder extends TemporaryFolder {
+
+    /**
+     * How long a change made to the files may take to be noticed.
+     */
+    static final long TIMEOUT_MILLIS = 10000;
+
+    private final List<LiteralBasedProvider> providers = new ArrayList<LiteralBasedProvider>();
+
+    protected void after() {
+        for (int i = 0; i < providers.size(); i++) {
+            LiteralBasedProvider provider = providers.get(i);
+            if (provider instanceof FileBasedProvider) {
+                ((FileBasedProvider) provider).stopWatcher();
+                ((FileBasedProvider) provider).stopReloader();
+            }
+            provider.stopUsersChecker();
+        }
+        providers.clear();
+        super.after();
+    }
+
+    File file(String fileName) {
+        return new File(getRoot(), fileName);
+    }
+
+    void write(String fileName, String contents) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file(fileName)), "UTF-8");
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Configures a FileBasedProvider on the folder.
+     *
+     * @param mode the "static" parameter.
+     * @param params any further parameters, as name and value pairs.
+     */
+    FileBasedProvider provider(String mode, String... params) throws Exception {
+        Map<String, String> map = toMap(params);
+        map.put("search_dir", getRoot().getPath());
+        map.put("static", mode);
+        FileBasedProvider provider = new FileBasedProvider();
+        init(provider, map);
+        return provider;
+    }
+
+    /**
+     * Configures a LiteralBasedProvider whose files are relative to the folder.
+     *
+     * @param params the parameters, as name and value pairs.
+     */
+    LiteralBasedProvider literal(String... params) throws Exception {
+        LiteralBasedProvider provider = new LiteralBasedProvider();
+        init(provider, toMap(params));
+        return provider;
+    }
+
+    private static Map<String, String> toMap(String[] params) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < params.length; i += 2) {
+            map.put(params[i], params[i + 1]);
+        }
+        return map;
+    }
+
+    private void init(LiteralBasedProvider provider, Map<String, String> map) throws Exception {
+        // also when refused, as something may have been started anyway
+        providers.add(provider);
+        provider.init(map, getRoot());
+    }
+
+    /**
+     * Waits for the provider to serve the expected Items,
+     * where null stands for a missing file.
+     */
+    static void assertItemsEventually(FileBasedProvider provider, String group, String[] expected)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            String[] items;
+            try {
+                items = provider.getItems("user", group);
+            } catch (ItemsException e) {
+                items = null;
+            }
+            if (Arrays.equals(expected, items)) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                assertArrayEquals(group, expected, provider.getItems("user", group));
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Waits for the provider to serve the expected Field Schema,
+     * where null stands for a missing file.
+     */
+    static void assertSchemaEventually(FileBasedProvider provider, String group, String schema, String[] expected)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            String[] fields;
+            try {
+                fields = provider.getSchema("user", group, schema);
+            } catch (SchemaException e) {
+                fields = null;
+            }
+            if (Arrays.equals(expected, fields)) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                assertArrayEquals(schema, expected, provider.getSchema("user", group, schema));
+            }
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.ItemsException;
+
+/**
+ * Tests for the statistics published through JMX by the providers.
+ */
+public class MetadataMetricsTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private File dir;
+    private final List<LiteralBasedProvider> providers = new ArrayList<LiteralBasedProvider>();
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("metrics").toFile();
+        FileOutputStream out = new FileOutputStream(new File(dir, "group.items"));
+        try {
+            out.write("item1\nitem2\n".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        for (int i = 0; i < providers.size(); i++) {
+            LiteralBasedProvider provider = providers.get(i);
+            if (provider.metrics != null) {
+                provider.metrics.unregister();
+            }
+        }
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    private <T extends LiteralBasedProvider> T init(T provider, String id, String... params) throws Exception {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("adapters_conf.id", id);
+        map.put("search_dir", dir.getPath());
+        for (int i = 0; i < params.length; i += 2) {
+            map.put(params[i], params[i + 1]);
+        }
+        provider.init(map, dir);
+        providers.add(provider);
+        return provider;
+    }
+
+    private static ObjectName name(String type, String id) throws Exception {
+        return new ObjectName("com.lightstreamer.adapters.metadata:type="
+                + ObjectName.quote(type) + ",name=" + ObjectName.quote(id));
+    }
+
+    private Set<String> attributeNames(ObjectName name) throws Exception {
+        Set<String> names = new HashSet<String>();
+        MBeanAttributeInfo[] attributes = server.getMBeanInfo(name).getAttributes();
+        for (int i = 0; i < attributes.length; i++) {
+            names.add(attributes[i].getName());
+        }
+        return names;
+    }
+
+    private long getLong(ObjectName name, String attribute) throws Exception {
+        return ((Long) server.getAttribute(name, attribute)).longValue();
+    }
+
+    @Test
+    public void enabledByDefault() throws Exception {
+        init(new LiteralBasedProvider(), "literal");
+        ObjectName name = name("LiteralBasedProvider", "literal");
+        assertTrue(server.isRegistered(name));
+
+        Set<String> attributes = attributeNames(name);
+        assertTrue(attributes.contains("GetItemsCalls"));
+        assertTrue(attributes.contains("ModeMayBeAllowedP99Micros"));
+        // no files are read
+        assertFalse(attributes.contains("FileLoadCalls"));
+        assertFalse(attributes.contains("CacheHits"));
+        try {
+            server.getAttribute(name, "CacheHits");
+            fail();
+        } catch (AttributeNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void disabledWithN() throws Exception {
+        LiteralBasedProvider provider = init(new LiteralBasedProvider(), "disabled", "metrics", "N");
+        assertNull(provider.metrics);
+        assertFalse(server.isRegistered(name("LiteralBasedProvider", "disabled")));
+    }
+
+    @Test
+    public void countsCallsAndErrors() throws Exception {
+        FileBasedProvider provider = init(new FileBasedProvider(), "calls");
+        ObjectName name = name("FileBasedProvider", "calls");
+        provider.getItems("user", "session", "group");
+        provider.getItems("user", "session", "group");
+        try {
+            provider.getItems("user", "session", "missing");
+            fail();
+        } catch (ItemsException e) {
+            // expected
+        }
+        assertEquals(3, getLong(name, "GetItemsCalls"));
+        assertEquals(1, getLong(name, "GetItemsErrors"));
+        assertEquals(3, getLong(name, "FileLoadCalls"));
+        assertEquals(1, getLong(name, "FileLoadErrors"));
+        assertTrue(((Double) server.getAttribute(name, "GetItemsMaxMicros")).doubleValue() > 0);
+
+        server.invoke(name, "resetStatistics", new Object[0], new String[0]);
+        assertEquals(0, getLong(name, "GetItemsCalls"));
+        assertEquals(0, getLong(name, "GetItemsErrors"));
+    }
+
+    @Test
+    public void exposesTheFileCacheOnlyWhenUsed() throws Exception {
+        FileBasedProvider cached = init(new FileBasedProvider(), "cached", "static", "Y");
+        ObjectName name = name("FileBasedProvider", "cached");
+        assertTrue(attributeNames(name).contains("CacheHits"));
+        cached.getItems("user", "session", "group");
+        cached.getItems("user", "session", "group");
+        assertEquals(1, getLong(name, "CacheMisses"));
+        assertEquals(1, getLong(name, "CacheHits"));
+        assertEquals(1, getLong(name, "CacheEntries"));
+
+        String[] modes = new String[] { "N", "PRELOAD" };
+        for (int i = 0; i < modes.length; i++) {
+            init(new FileBasedProvider(), modes[i], "static", modes[i]);
+            Set<String> attributes = attributeNames(name("FileBasedProvider", modes[i]));
+            assertTrue(modes[i], attributes.contains("FileLoadCalls"));
+            assertFalse(modes[i], attributes.contains("CacheHits"));
+        }
+    }
+
+    @Test
+    public void unregisters() throws Exception {
+        LiteralBasedProvider provider = init(new LiteralBasedProvider(), "unregistered");
+        ObjectName name = name("LiteralBasedProvider", "unregistered");
+        assertTrue(server.isRegistered(name));
+        provider.metrics.unregister();
+        assertFalse(server.isRegistered(name));
+        // twice is harmless
+        provider.metrics.unregister();
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for NameFileReader, against the line based parsing it replaced.
+ */
+public class NameFileReaderTest {
+
+    private static final String[] CONTENTS = new String[] {
+        "",
+        "name",
+        "name\n",
+        "one\ntwo\nthree\n",
+        "one\rtwo\rthree\r",
+        "one\r\ntwo\r\nthree\r\n",
+        "one\r\rtwo\n\nthree\r\n\r\nfour",
+        "one\n\r\ntwo\r\r\nthree",
+        "\n\n  \n\t\n",
+        "# comment\nname\n  # indented comment\n#\nname # not a comment\n",
+        "#include base\n#include\n# include base\n",
+        "  padded  \n\tpadded\t\n padded\r\n",
+        "\u0001name\u0007\n\u0000\n\u001Fother\u000B\u000C\n\u007Flast\u007F\n",
+        "città\n日本語\n😀\n été \n",
+        "﻿bom\n nbsp \nsep arator\n",
+    };
+
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("names").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * The parsing once made by the Metadata Adapters, through
+     * BufferedReader.readLine and String.trim.
+     */
+    private static String[] readLines(byte[] bytes) throws IOException {
+        List<String> list = new ArrayList<String>();
+        BufferedReader source = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), "UTF-8"));
+        try {
+            while (true) {
+                String line = source.readLine();
+                if (line == null) {
+                    break;
+                }
+                line = line.trim();
+                if (line.equals("")) {
+                    continue;
+                }
+                if (line.charAt(0) == '#') {
+                    continue;    // comment
+                }
+                list.add(line);
+            }
+        } finally {
+            source.close();
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    private File write(byte[] bytes) throws IOException {
+        File file = File.createTempFile("list", ".items", dir);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void parsesFilesAsLines() throws IOException {
+        for (int i = 0; i < CONTENTS.length; i++) {
+            byte[] bytes = CONTENTS[i].getBytes("UTF-8");
+            assertArrayEquals(CONTENTS[i], readLines(bytes), NameFileReader.read(write(bytes)));
+        }
+    }
+
+    @Test
+    public void readsPastTheExpectedSize() throws IOException {
+        // as for a file that grows after its size is taken
+        for (int i = 0; i < CONTENTS.length; i++) {
+            byte[] bytes = CONTENTS[i].getBytes("UTF-8");
+            int[] sizes = new int[] { 0, 1, bytes.length / 2, bytes.length - 1 };
+            for (int j = 0; j < sizes.length; j++) {
+                if (sizes[j] >= 0) {
+                    String[] names = NameFileReader.read(new ByteArrayInputStream(bytes), sizes[j], false);
+                    assertArrayEquals(CONTENTS[i], readLines(bytes), names);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsLessThanTheExpectedSize() throws IOException {
+        // as for a file that shrinks after its size is taken
+        for (int i = 0; i < CONTENTS.length; i++) {
+            byte[] bytes = CONTENTS[i].getBytes("UTF-8");
+            String[] names = NameFileReader.read(new ByteArrayInputStream(bytes), bytes.length * 2 + 10, false);
+            assertArrayEquals(CONTENTS[i], readLines(bytes), names);
+        }
+    }
+
+    @Test
+    public void keepsOnlyCompleteDirectives() throws IOException {
+        byte[] bytes = "#include base\n  #include\tother  \n#include\n#include   \n#includes x\n# include y\nname\n".getBytes("UTF-8");
+        assertArrayEquals(new String[] { "#include base", "#include\tother", "name" },
+                NameFileReader.read(write(bytes), true));
+    }
+
+}
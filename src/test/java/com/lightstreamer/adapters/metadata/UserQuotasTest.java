@@ -0,0 +1,227 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.lightstreamer.interfaces.metadata.CreditsException;
+
+/**
+ * Tests for UserQuotas.
+ */
+public class UserQuotasTest {
+
+    private static void assertRefused(UserQuotas quotas, String user, String sessionID,
+            int items, int subscriptions, int code) {
+        try {
+            quotas.acquire(user, sessionID, items, subscriptions);
+            fail("accepted " + items + " Items and " + subscriptions + " Subscriptions");
+        } catch (CreditsException e) {
+            assertEquals(code, e.getClientErrorCode());
+        }
+    }
+
+    @Test
+    public void limitsAreSharedAmongTheSessionsOfAUser() throws CreditsException {
+        UserQuotas quotas = new UserQuotas(10, 3);
+        quotas.acquire("alice", "s1", 4, 1);
+        quotas.acquire("alice", "s2", 6, 1);
+        assertRefused(quotas, "alice", "s3", 1, 1, UserQuotas.ITEMS_EXCEEDED);
+
+        // other Users are not affected
+        quotas.acquire("bob", "s4", 10, 3);
+    }
+
+    @Test
+    public void subscriptionsAreLimitedToo() throws CreditsException {
+        UserQuotas quotas = new UserQuotas(100, 2);
+        quotas.acquire("alice", "s1", 1, 2);
+        assertRefused(quotas, "alice", "s1", 1, 1, UserQuotas.SUBSCRIPTIONS_EXCEEDED);
+    }
+
+    @Test
+    public void refusedRequestsTakeNothing() throws CreditsException {
+        UserQuotas quotas = new UserQuotas(10, 10);
+        quotas.acquire("alice", "s1", 8, 1);
+        assertRefused(quotas, "alice", "s1", 5, 1, UserQuotas.ITEMS_EXCEEDED);
+        quotas.acquire("alice", "s1", 2, 9);
+    }
+
+    @Test
+    public void releaseGivesBack() throws CreditsException {
+        UserQuotas quotas = new UserQuotas(10, 2);
+        quotas.acquire("alice", "s1", 10, 2);
+        quotas.release("s1", 4, 1);
+        quotas.acquire("alice", "s2", 4, 1);
+        assertRefused(quotas, "alice", "s2", 1, 0, UserQuotas.ITEMS_EXCEEDED);
+    }
+
+    @Test
+    public void closeGivesBackWhatTheSessionHeld() throws CreditsException {
+        UserQuotas quotas = new UserQuotas(10, 10);
+        quotas.acquire("alice", "s1", 3, 1);
+        quotas.acquire("alice", "s1", 3, 1);
+        quotas.acquire("alice", "s2", 4, 1);
+        quotas.close("s1");
+        quotas.acquire("alice", "s3", 6, 1);
+        assertRefused(quotas, "alice", "s3", 1, 0, UserQuotas.ITEMS_EXCEEDED);
+
+        // late releases for a closed Session are ignored
+        quotas.release("s1", 3, 1);
+        assertRefused(quotas, "alice", "s3", 1, 0, UserQuotas.ITEMS_EXCEEDED);
+
+        // the counter can be retired and replaced
+        quotas.close("s2");
+        quotas.close("s3");
+        quotas.acquire("alice", "s4", 10, 1);
+    }
+
+    @Test
+    public void releaseAfterCloseIsIgnored() throws CreditsException {
+        UserQuotas quotas = new UserQuotas(10, 10);
+        quotas.acquire("alice", "s1", 6, 1);
+        // the counter of the User is retired here
+        quotas.close("s1");
+        quotas.release("s1", 6, 1);
+        quotas.acquire("alice", "s2", 10, 1);
+        assertRefused(quotas, "alice", "s2", 1, 0, UserQuotas.ITEMS_EXCEEDED);
+    }
+
+    @Test
+    public void releaseRacingCloseGivesBackOnce() throws Exception {
+        final UserQuotas quotas = new UserQuotas(100, 0);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int round = 0; round < 2000; round++) {
+            final String sessionID = "s" + round;
+            quotas.acquire("alice", sessionID, 10, 1);
+            // held by another Session, so that a double release would show
+            quotas.acquire("alice", "other", 90, 1);
+            Thread releaser = new Thread() {
+                public void run() {
+                    try {
+                        quotas.release(sessionID, 10, 1);
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            releaser.start();
+            quotas.close(sessionID);
+            releaser.join();
+            assertNull(failure.get());
+
+            // exactly the 90 Items of the other Session are still held
+            quotas.acquire("alice", "probe", 10, 1);
+            assertRefused(quotas, "alice", "probe", 1, 0, UserQuotas.ITEMS_EXCEEDED);
+            quotas.close("probe");
+            quotas.close("other");
+        }
+    }
+
+    @Test
+    public void zeroMeansNoLimit() throws CreditsException {
+        UserQuotas quotas = new UserQuotas(0, 0);
+        quotas.acquire("alice", "s1", 1000000, 1000000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesNegativeLimits() {
+        new UserQuotas(-1, 0);
+    }
+
+    @Test
+    public void sessionsWithoutUserAreNotLimited() throws CreditsException {
+        UserQuotas quotas = new UserQuotas(1, 1);
+        quotas.acquire(null, "s1", 5, 5);
+        quotas.acquire(null, "s2", 5, 5);
+        quotas.release("s1", 5, 5);
+        quotas.close("s1");
+        quotas.close("s2");
+
+        // named Users are still limited
+        quotas.acquire("alice", "s3", 1, 1);
+        assertRefused(quotas, "alice", "s3", 1, 0, UserQuotas.ITEMS_EXCEEDED);
+    }
+
+    @Test
+    public void concurrentSessionsNeverExceedTheLimit() throws InterruptedException {
+        final int maxItems = 50;
+        final UserQuotas quotas = new UserQuotas(maxItems, 0);
+        final AtomicInteger held = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final String sessionID = "s" + t;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5000; i++) {
+                            try {
+                                quotas.acquire("alice", sessionID, 3, 1);
+                            } catch (CreditsException e) {
+                                continue;
+                            }
+                            int now = held.addAndGet(3);
+                            int currPeak = peak.get();
+                            while (now > currPeak && ! peak.compareAndSet(currPeak, now)) {
+                                currPeak = peak.get();
+                            }
+                            held.addAndGet(-3);
+                            if (i % 10 == 0) {
+                                quotas.close(sessionID);
+                            } else {
+                                quotas.release(sessionID, 3, 1);
+                            }
+                        }
+                        quotas.close(sessionID);
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        if (peak.get() > maxItems) {
+            fail("peak of " + peak.get() + " Items");
+        }
+
+        // everything was given back
+        try {
+            quotas.acquire("alice", "last", maxItems, 1);
+        } catch (CreditsException e) {
+            fail(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+*
+* Copyright (c) Lightstreamer Srl
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+*/
+
+package com.lightstreamer.adapters.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for WarmStart.
+ */
+public class WarmStartTest {
+
+    private static final int MAGIC = 0x4C535753;
+
+    private File dir;
+    private File stateFile;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("warmstart").toFile();
+        stateFile = new File(dir, "state.bin");
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    private static WarmStart sample() {
+        WarmStart state = new WarmStart();
+        state.patterns = new String[] { "item_.*", "other[0-9]+" };
+        state.families.put("item_1", Integer.valueOf(0));
+        state.families.put("unknown", Integer.valueOf(-1));
+        state.files.put("group.items", new FileCache.Entry(new String[] { "item_1", "#include base" }, 1234L, 20L, 0L));
+        state.files.put("schema.schema", new FileCache.Entry(new String[] { "bid", "ask", "è" }, 5678L, 15L, 0L));
+        state.includes = true;
+        return state;
+    }
+
+    private static void assertSameState(WarmStart expected, WarmStart actual) {
+        assertArrayEquals(expected.patterns, actual.patterns);
+        assertEquals(expected.families, actual.families);
+        assertEquals(expected.includes, actual.includes);
+        assertEquals(new ArrayList<String>(expected.files.keySet()), new ArrayList<String>(actual.files.keySet()));
+        for (Map.Entry<String, FileCache.Entry> file : expected.files.entrySet()) {
+            FileCache.Entry found = actual.files.get(file.getKey());
+            assertArrayEquals(file.getValue().contents, found.contents);
+            assertEquals(file.getValue().lastModified, found.lastModified);
+            assertEquals(file.getValue().length, found.length);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        WarmStart state = sample();
+        state.write(stateFile);
+        assertSameState(state, WarmStart.read(stateFile));
+    }
+
+    @Test
+    public void roundTripWithoutFamilies() throws IOException {
+        WarmStart state = sample();
+        state.patterns = null;
+        state.families.clear();
+        state.includes = false;
+        state.write(stateFile);
+
+        WarmStart read = WarmStart.read(stateFile);
+        assertNull(read.patterns);
+        assertSameState(state, read);
+    }
+
+    @Test
+    public void writeReplacesTheFile() throws IOException {
+        sample().write(stateFile);
+        WarmStart state = new WarmStart();
+        state.write(stateFile);
+
+        assertTrue(WarmStart.read(stateFile).files.isEmpty());
+        assertFalse(new File(stateFile.getPath() + ".tmp").exists());
+    }
+
+    private void assertRefused() {
+        try {
+            WarmStart.read(stateFile);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void refusesOtherFiles() throws IOException {
+        sample().write(stateFile);
+        RandomAccessFile raf = new RandomAccessFile(stateFile, "rw");
+        try {
+            raf.writeInt(0);
+            assertRefused();
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(99);
+            assertRefused();
+            raf.seek(4);
+            raf.writeInt(1);
+            assertRefused();
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void refusesDamagedFiles() throws IOException {
+        sample().write(stateFile);
+        byte[] bytes = Files.readAllBytes(stateFile.toPath());
+        List<Integer> failures = new ArrayList<Integer>();
+        // every single damaged int is either harmless or detected
+        for (int pos = 8; pos + 4 <= bytes.length; pos++) {
+            byte[] damaged = bytes.clone();
+            damaged[pos] = (byte) 0xFF;
+            damaged[pos + 1] = (byte) 0xFF;
+            damaged[pos + 2] = (byte) 0xF0;
+            damaged[pos + 3] = 0;
+            Files.write(stateFile.toPath(), damaged);
+            try {
+                WarmStart.read(stateFile);
+            } catch (IOException e) {
+                // detected
+            } catch (RuntimeException e) {
+                failures.add(Integer.valueOf(pos));
+            }
+        }
+        assertEquals(new ArrayList<Integer>(), failures);
+
+        Files.write(stateFile.toPath(), new byte[] { 0x4C, 0x53 });
+        assertRefused();
+    }
+
+}